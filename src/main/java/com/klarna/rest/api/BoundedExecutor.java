@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed amount of threads with a bounded backlog.
+ *
+ * {@link #submit(Runnable)} blocks while {@code concurrency} tasks are running and as many
+ * again are waiting, so a caller can stream any amount of work into the executor without
+ * materializing it. {@link #await()} waits until all submitted tasks are finished.
+ */
+public class BoundedExecutor {
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(BoundedExecutor.class);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int capacity;
+
+    /**
+     * Creates an executor.
+     *
+     * @param concurrency Maximum amount of tasks running at the same time
+     */
+    public BoundedExecutor(final int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.capacity = concurrency * 2;
+        this.executor = Executors.newFixedThreadPool(concurrency);
+        this.permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Submits a task, waiting for a free slot in the backlog.
+     *
+     * @param task Task
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void submit(final Runnable task) throws InterruptedIOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while submitting a task");
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("Bulk task failed", e);
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until all submitted tasks are finished.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void await() throws InterruptedIOException {
+        try {
+            permits.acquire(capacity);
+            permits.release(capacity);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tasks");
+        }
+    }
+
+    /**
+     * Waits for all submitted tasks and stops the threads.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void shutdown() throws InterruptedIOException {
+        try {
+            await();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stops the threads, interrupting running tasks.
+     *
+     * @param timeout Time to wait for the tasks to stop in milliseconds
+     * @return true if all tasks stopped
+     */
+    public boolean shutdownNow(final long timeout) {
+        executor.shutdownNow();
+        try {
+            return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
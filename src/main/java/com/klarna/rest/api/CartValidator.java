@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import com.klarna.rest.api.checkout.model.CheckoutOrder;
+import com.klarna.rest.api.checkout.model.CheckoutOrderLine;
+import com.klarna.rest.api.order_management.model.OrderManagementOrderLine;
+import com.klarna.rest.api.order_management.model.OrderManagementUpdateAuthorization;
+import com.klarna.rest.api.payments.model.PaymentsCreateOrderRequest;
+import com.klarna.rest.api.payments.model.PaymentsOrderLine;
+import com.klarna.rest.api.payments.model.PaymentsSession;
+
+import java.util.List;
+
+/**
+ * Checks the cart arithmetic Klarna enforces before a request is sent, so that a broken cart
+ * fails locally instead of with a 400 response.
+ *
+ * For every order line:
+ * <ul>
+ *     <li>{@code total_amount = quantity * unit_price - total_discount_amount}</li>
+ *     <li>{@code total_tax_amount = total_amount * tax_rate / (10000 + tax_rate)}, give or take one minor unit</li>
+ * </ul>
+ * and for the order:
+ * <ul>
+ *     <li>{@code order_amount} is the sum of all {@code total_amount}</li>
+ *     <li>{@code order_tax_amount} is the sum of all {@code total_tax_amount}</li>
+ * </ul>
+ * Missing amounts count as 0.
+ *
+ * <pre>
+ * CartValidator.validate(order);
+ * checkoutOrdersApi.create(order);
+ * </pre>
+ */
+public final class CartValidator {
+    private CartValidator() {
+    }
+
+    /**
+     * Validates a Checkout order.
+     *
+     * @param order Order
+     * @throws IllegalArgumentException if the amounts do not add up
+     */
+    public static void validate(final CheckoutOrder order) {
+        final List<CheckoutOrderLine> lines = order.getOrderLines();
+        long amount = 0;
+        long taxAmount = 0;
+        if (lines != null) {
+            int i = 0;
+            for (CheckoutOrderLine line : lines) {
+                amount += line(i++, value(line.getQuantity()), value(line.getUnitPrice()),
+                        value(line.getTotalDiscountAmount()), value(line.getTotalAmount()),
+                        value(line.getTaxRate()), value(line.getTotalTaxAmount()));
+                taxAmount += value(line.getTotalTaxAmount());
+            }
+        }
+        order("order_amount", value(order.getOrderAmount()), amount, "total_amount");
+        order("order_tax_amount", value(order.getOrderTaxAmount()), taxAmount, "total_tax_amount");
+    }
+
+    /**
+     * Validates a Payments session.
+     *
+     * @param session Session
+     * @throws IllegalArgumentException if the amounts do not add up
+     */
+    public static void validate(final PaymentsSession session) {
+        validate(session.getOrderLines(), session.getOrderAmount(), session.getOrderTaxAmount());
+    }
+
+    /**
+     * Validates a Payments order.
+     *
+     * @param order Order
+     * @throws IllegalArgumentException if the amounts do not add up
+     */
+    public static void validate(final PaymentsCreateOrderRequest order) {
+        validate(order.getOrderLines(), order.getOrderAmount(), order.getOrderTaxAmount());
+    }
+
+    /**
+     * Validates new order amount and order lines of an Order Management order.
+     *
+     * @param update New amount and order lines
+     * @throws IllegalArgumentException if the amounts do not add up
+     */
+    public static void validate(final OrderManagementUpdateAuthorization update) {
+        final List<OrderManagementOrderLine> lines = update.getOrderLines();
+        long amount = 0;
+        if (lines != null) {
+            int i = 0;
+            for (OrderManagementOrderLine line : lines) {
+                amount += line(i++, value(line.getQuantity()), value(line.getUnitPrice()),
+                        value(line.getTotalDiscountAmount()), value(line.getTotalAmount()),
+                        line.getTaxRate() == null ? 0 : line.getTaxRate(), value(line.getTotalTaxAmount()));
+            }
+        }
+        order("order_amount", value(update.getOrderAmount()), amount, "total_amount");
+    }
+
+    private static void validate(final List<PaymentsOrderLine> lines, final Long orderAmount,
+                                 final Long orderTaxAmount) {
+        long amount = 0;
+        long taxAmount = 0;
+        if (lines != null) {
+            int i = 0;
+            for (PaymentsOrderLine line : lines) {
+                amount += line(i++, value(line.getQuantity()), value(line.getUnitPrice()),
+                        value(line.getTotalDiscountAmount()), value(line.getTotalAmount()),
+                        value(line.getTaxRate()), value(line.getTotalTaxAmount()));
+                taxAmount += value(line.getTotalTaxAmount());
+            }
+        }
+        order("order_amount", value(orderAmount), amount, "total_amount");
+        order("order_tax_amount", value(orderTaxAmount), taxAmount, "total_tax_amount");
+    }
+
+    private static long line(final int index, final long quantity, final long unitPrice, final long discount,
+                             final long total, final long taxRate, final long tax) {
+        final long expected = quantity * unitPrice - discount;
+        if (total != expected) {
+            throw new IllegalArgumentException(String.format(
+                    "order_lines[%d]: total_amount %d does not equal quantity * unit_price - total_discount_amount %d",
+                    index, total, expected));
+        }
+
+        // total_tax_amount * (10000 + tax_rate) has to be within one unit of total_amount * tax_rate
+        final long divisor = 10000 + taxRate;
+        if (Math.abs(tax * divisor - total * taxRate) > divisor) {
+            throw new IllegalArgumentException(String.format(
+                    "order_lines[%d]: total_tax_amount %d does not match total_amount %d at tax_rate %d",
+                    index, tax, total, taxRate));
+        }
+        return total;
+    }
+
+    private static void order(final String field, final long actual, final long expected, final String lineField) {
+        if (actual != expected) {
+            throw new IllegalArgumentException(String.format(
+                    "%s %d does not equal the sum of %s %d", field, actual, lineField, expected));
+        }
+    }
+
+    private static long value(final Long value) {
+        return value == null ? 0 : value;
+    }
+}
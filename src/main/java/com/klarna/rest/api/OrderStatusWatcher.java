@@ -0,0 +1,378 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.klarna.rest.api.checkout.CheckoutOrdersApi;
+import com.klarna.rest.api.order_management.OrderManagementOrdersApi;
+import com.klarna.rest.model.ApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the status of many orders with a single scheduler.
+ *
+ * Watched orders are kept in a hashed timing wheel advanced by one thread. Due orders are
+ * polled by a small worker pool under an optional global {@link RateLimiter}, and the poll
+ * interval of every order grows with the time it has been watched, following a {@link Schedule}.
+ * Status changes are reported to a {@link Listener}.
+ *
+ * <pre>
+ * OrderStatusWatcher watcher = new OrderStatusWatcher(
+ *         OrderStatusWatcher.checkout(client.newCheckoutOrdersApi()),
+ *         OrderStatusWatcher.Schedule.proportional(5000, 300000, 0.1),
+ *         new RateLimiter(50), 4, listener);
+ * watcher.watch(orderId, "checkout_incomplete");
+ * </pre>
+ */
+public class OrderStatusWatcher implements Closeable {
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(OrderStatusWatcher.class);
+
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Reads the current status of an order.
+     */
+    public interface StatusSource {
+        String getStatus(String orderId) throws ApiException, IOException;
+    }
+
+    /**
+     * Poll interval policy.
+     */
+    public abstract static class Schedule {
+        /**
+         * Gets the delay before the next poll.
+         *
+         * @param age Time the order has been watched in milliseconds
+         * @return delay in milliseconds
+         */
+        public abstract long getInterval(long age);
+
+        /**
+         * Creates a schedule polling every {@code ratio * age}, bounded by a minimum and a maximum.
+         *
+         * @param min Minimum interval in milliseconds
+         * @param max Maximum interval in milliseconds
+         * @param ratio Share of the age to wait
+         * @return schedule
+         */
+        public static Schedule proportional(final long min, final long max, final double ratio) {
+            if (min < 1 || max < min) {
+                throw new IllegalArgumentException("Invalid interval bounds: " + min + ", " + max);
+            }
+            return new Schedule() {
+                @Override
+                public long getInterval(final long age) {
+                    return Math.max(min, Math.min(max, (long) (age * ratio)));
+                }
+            };
+        }
+    }
+
+    /**
+     * Receives status changes and failed polls.
+     *
+     * Called from the worker threads, implementations must be thread-safe.
+     */
+    public interface Listener {
+        /**
+         * Handles a status change.
+         *
+         * @param orderId Order id
+         * @param previous Previous status, null on the first poll of an order watched without a status
+         * @param current Current status
+         * @return true to keep watching the order
+         */
+        boolean onChange(String orderId, String previous, String current);
+
+        /**
+         * Handles a failed poll. The order stays watched.
+         *
+         * @param orderId Order id
+         * @param error {@link ApiException} or {@link IOException}
+         */
+        void onError(String orderId, Exception error);
+    }
+
+    /**
+     * Status projection of an order.
+     */
+    static class StatusProjection {
+        @JsonProperty("status")
+        public String status;
+    }
+
+    /**
+     * Creates a source reading Checkout orders.
+     *
+     * @param api Checkout orders API
+     * @return status source
+     */
+    public static StatusSource checkout(final CheckoutOrdersApi api) {
+        return new StatusSource() {
+            @Override
+            public String getStatus(String orderId) throws ApiException, IOException {
+                StatusProjection order = api.fetch(orderId, StatusProjection.class);
+                return order == null ? null : order.status;
+            }
+        };
+    }
+
+    /**
+     * Creates a source reading Order Management orders.
+     *
+     * @param api Order Management orders API
+     * @return status source
+     */
+    public static StatusSource orderManagement(final OrderManagementOrdersApi api) {
+        return new StatusSource() {
+            @Override
+            public String getStatus(String orderId) throws ApiException, IOException {
+                StatusProjection order = api.fetch(orderId, StatusProjection.class);
+                return order == null ? null : order.status;
+            }
+        };
+    }
+
+    private final StatusSource source;
+    private final Schedule schedule;
+    private final RateLimiter rateLimiter;
+    private final Listener listener;
+    private final long tickDuration;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private final Deque<Watch>[] wheel;
+    private final ExecutorService workers;
+    private final Thread scheduler;
+    private long tick;
+    private volatile boolean closed;
+
+    /**
+     * Creates and starts a watcher with a tick of 100 milliseconds.
+     *
+     * @param source Status source
+     * @param schedule Poll interval policy
+     * @param rateLimiter Global poll rate limiter, or null
+     * @param threads Amount of worker threads
+     * @param listener Status listener
+     */
+    public OrderStatusWatcher(final StatusSource source, final Schedule schedule, final RateLimiter rateLimiter,
+                              final int threads, final Listener listener) {
+        this(source, schedule, rateLimiter, threads, listener, 100);
+    }
+
+    /**
+     * Creates and starts a watcher.
+     *
+     * @param source Status source
+     * @param schedule Poll interval policy
+     * @param rateLimiter Global poll rate limiter, or null
+     * @param threads Amount of worker threads
+     * @param listener Status listener
+     * @param tickDuration Timing wheel resolution in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public OrderStatusWatcher(final StatusSource source, final Schedule schedule, final RateLimiter rateLimiter,
+                              final int threads, final Listener listener, final long tickDuration) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        if (tickDuration < 1) {
+            throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+        }
+        this.source = source;
+        this.schedule = schedule;
+        this.rateLimiter = rateLimiter;
+        this.listener = listener;
+        this.tickDuration = tickDuration;
+        this.wheel = new Deque[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.scheduler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                advance();
+            }
+        }, "order-status-watcher");
+        this.scheduler.setDaemon(true);
+        this.scheduler.start();
+    }
+
+    /**
+     * Starts watching an order. The first poll happens after the minimum interval.
+     *
+     * @param orderId Order id
+     * @param status Known status, or null
+     */
+    public void watch(final String orderId, final String status) {
+        if (closed) {
+            throw new IllegalStateException("Watcher is closed");
+        }
+        Watch watch = new Watch(orderId, status, System.currentTimeMillis());
+        Watch previous = watches.put(orderId, watch);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        schedule(watch, schedule.getInterval(0));
+    }
+
+    /**
+     * Stops watching an order.
+     *
+     * @param orderId Order id
+     * @return true if the order was watched
+     */
+    public boolean unwatch(final String orderId) {
+        Watch watch = watches.remove(orderId);
+        if (watch == null) {
+            return false;
+        }
+        watch.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Gets the amount of watched orders.
+     *
+     * @return order count
+     */
+    public int size() {
+        return watches.size();
+    }
+
+    /**
+     * Stops the scheduler and the workers.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.interrupt();
+        workers.shutdownNow();
+    }
+
+    private synchronized void schedule(final Watch watch, final long delay) {
+        long ticks = Math.max(1, (delay + tickDuration - 1) / tickDuration);
+        watch.deadline = tick + ticks;
+        wheel[(int) (watch.deadline % WHEEL_SIZE)].addLast(watch);
+    }
+
+    private void advance() {
+        long next = System.nanoTime();
+        while (!closed) {
+            next += TimeUnit.MILLISECONDS.toNanos(tickDuration);
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                tick++;
+                Iterator<Watch> bucket = wheel[(int) (tick % WHEEL_SIZE)].iterator();
+                while (bucket.hasNext()) {
+                    final Watch watch = bucket.next();
+                    if (watch.cancelled) {
+                        bucket.remove();
+                    } else if (watch.deadline <= tick) {
+                        bucket.remove();
+                        dispatch(watch);
+                    }
+                }
+            }
+        }
+    }
+
+    private void dispatch(final Watch watch) {
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    poll(watch);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (!closed) {
+                log.error("Cannot dispatch poll of order " + watch.orderId, e);
+            }
+        }
+    }
+
+    private void poll(final Watch watch) {
+        try {
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+            if (watch.cancelled) {
+                return;
+            }
+
+            String status = source.getStatus(watch.orderId);
+            if (status != null && !status.equals(watch.status)) {
+                String previous = watch.status;
+                watch.status = status;
+                if (!listener.onChange(watch.orderId, previous, status)) {
+                    watches.remove(watch.orderId, watch);
+                    watch.cancelled = true;
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (closed) {
+                return;
+            }
+            listener.onError(watch.orderId, e);
+        }
+
+        if (!watch.cancelled && !closed) {
+            schedule(watch, schedule.getInterval(System.currentTimeMillis() - watch.since));
+        }
+    }
+
+    private static final class Watch {
+        private final String orderId;
+        private final long since;
+        private volatile String status;
+        private volatile boolean cancelled;
+        private long deadline;
+
+        Watch(final String orderId, final String status, final long since) {
+            this.orderId = orderId;
+            this.status = status;
+            this.since = since;
+        }
+    }
+}
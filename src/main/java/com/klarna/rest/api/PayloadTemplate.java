@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Request body made of a part serialized once and the properties that change per request.
+ *
+ * The template model holds what every request shares, e.g. merchant URLs, options and locale.
+ * Rendering serializes only the properties of the per-request model and splices them into the
+ * serialized template. Properties set in the template take precedence over the per-request model;
+ * properties left at their default value in the template come from the per-request model.
+ *
+ * Templates are immutable and can be shared between threads.
+ *
+ * <pre>
+ * PayloadTemplate&lt;CheckoutOrder&gt; template = new PayloadTemplate&lt;&gt;(new CheckoutOrder()
+ *         .purchaseCountry("SE").purchaseCurrency("SEK").locale("sv-SE").merchantUrls(urls));
+ * checkoutOrdersApi.create(template, new CheckoutOrder().orderAmount(1000L).orderLines(lines));
+ * </pre>
+ *
+ * @param <T> Model type
+ */
+public class PayloadTemplate<T> {
+    private static final String FILTER = "payloadTemplate";
+
+    @JsonFilter(FILTER)
+    private static class Filtered {
+    }
+
+    private final byte[] prefix;
+    private final ObjectWriter writer;
+
+    /**
+     * Creates a template.
+     *
+     * @param template Properties shared by all requests
+     * @throws IllegalArgumentException if the template cannot be serialized
+     */
+    public PayloadTemplate(final T template) {
+        final ObjectMapper mapper = new DefaultMapper();
+        try {
+            // Properties left at the model's default value, like empty lists, stay with the request
+            ObjectNode tree = mapper.valueToTree(template);
+            JsonNode defaults = mapper.valueToTree(template.getClass().newInstance());
+            Set<String> names = new HashSet<>();
+            for (Iterator<Map.Entry<String, JsonNode>> it = tree.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                if (field.getValue().equals(defaults.get(field.getKey()))) {
+                    it.remove();
+                } else {
+                    names.add(field.getKey());
+                }
+            }
+
+            // Everything up to, but without, the closing brace of the template object
+            byte[] json = mapper.writeValueAsBytes(tree);
+            this.prefix = Arrays.copyOf(json, json.length - 1);
+
+            this.writer = new DefaultMapper()
+                    .addMixIn(template.getClass(), Filtered.class)
+                    .writer(new SimpleFilterProvider().addFilter(FILTER,
+                            SimpleBeanPropertyFilter.serializeAllExcept(names)));
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot serialize the template", e);
+        }
+    }
+
+    /**
+     * Renders a request body.
+     *
+     * @param model Per-request properties
+     * @return JSON body
+     * @throws JsonProcessingException if the model cannot be serialized
+     */
+    public byte[] render(final T model) throws JsonProcessingException {
+        byte[] json = writer.writeValueAsBytes(model);
+        if (json.length <= 2) {
+            byte[] body = new byte[prefix.length + 1];
+            System.arraycopy(prefix, 0, body, 0, prefix.length);
+            body[prefix.length] = '}';
+            return body;
+        }
+
+        // Template {"a":1 + , + "b":2} of the model; no comma after an empty template
+        boolean emptyTemplate = prefix.length == 1;
+        byte[] body = new byte[prefix.length + (emptyTemplate ? 0 : 1) + json.length - 1];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        int offset = prefix.length;
+        if (!emptyTemplate) {
+            body[offset++] = ',';
+        }
+        System.arraycopy(json, 1, body, offset, json.length - 1);
+        return body;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of requests shared by any amount of threads.
+ *
+ * Permits are handed out evenly spaced; a thread that is too early sleeps until its slot,
+ * outside of the lock, so waiting threads do not block each other.
+ */
+public class RateLimiter {
+    private final long interval;
+    private long next;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param permitsPerSecond Maximum rate
+     */
+    public RateLimiter(final double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+        }
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.next = System.nanoTime();
+    }
+
+    /**
+     * Waits for a permit.
+     *
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public void acquire() throws InterruptedIOException {
+        long delay = reserve(System.nanoTime());
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a permit");
+        }
+    }
+
+    /**
+     * Takes a permit if one is available right away.
+     *
+     * @return true if the permit was taken
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        if (next - now > 0) {
+            return false;
+        }
+        next = now + interval;
+        return true;
+    }
+
+    private synchronized long reserve(final long now) {
+        long slot = next - now > 0 ? next : now;
+        next = slot + interval;
+        return slot - now;
+    }
+}
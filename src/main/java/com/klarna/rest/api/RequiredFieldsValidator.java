@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Checks that the fields the API requires are set before a model is sent.
+ *
+ * Required fields are taken from the {@code @ApiModelProperty(required = true)} annotations of the
+ * generated models; a required list must not be empty either. Every model class is introspected
+ * once into a list of getter handles; validation afterwards only calls those handles and walks
+ * into nested models, lists and maps.
+ *
+ * Only use it for requests that carry a complete model, like {@code create}. Update requests may
+ * send a model with just the changed fields.
+ *
+ * <pre>
+ * RequiredFieldsValidator.validate(session);
+ * paymentsSessionsApi.create(session);
+ * </pre>
+ */
+public final class RequiredFieldsValidator {
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final ConcurrentMap<Class<?>, Property[]> CACHE = new ConcurrentHashMap<>();
+
+    private RequiredFieldsValidator() {
+    }
+
+    /**
+     * Validates a model and all the models it contains.
+     *
+     * @param model Model
+     * @throws IllegalArgumentException listing every missing field by its JSON path
+     */
+    public static void validate(final Object model) {
+        List<String> missing = getMissingFields(model);
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("Missing required fields: " + missing);
+        }
+    }
+
+    /**
+     * Gets the missing required fields of a model and all the models it contains.
+     *
+     * @param model Model
+     * @return JSON paths of the missing fields, e.g. {@code order_lines[2].name}
+     */
+    public static List<String> getMissingFields(final Object model) {
+        List<String> missing = Collections.emptyList();
+        if (model != null) {
+            missing = check(model, new StringBuilder(), missing);
+        }
+        return missing;
+    }
+
+    private static List<String> check(final Object model, final StringBuilder path, List<String> missing) {
+        Property[] properties = properties(model.getClass());
+        if (properties.length == 0) {
+            return missing;
+        }
+        final int length = path.length();
+        for (Property property : properties) {
+            Object value = property.get(model);
+            if (value == null || value instanceof Collection && ((Collection<?>) value).isEmpty()) {
+                if (property.required) {
+                    if (missing.isEmpty()) {
+                        missing = new ArrayList<>();
+                    }
+                    missing.add(path.append(property.name).toString());
+                    path.setLength(length);
+                }
+                continue;
+            }
+            if (property.nested) {
+                path.append(property.name);
+                missing = nested(value, path, missing);
+                path.setLength(length);
+            }
+        }
+        return missing;
+    }
+
+    private static List<String> nested(final Object value, final StringBuilder path, List<String> missing) {
+        final int length = path.length();
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                Object item = list.get(i);
+                if (item != null && isModel(item.getClass())) {
+                    path.append('[').append(i).append("].");
+                    missing = check(item, path, missing);
+                    path.setLength(length);
+                }
+            }
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Object item = entry.getValue();
+                if (item != null && isModel(item.getClass())) {
+                    path.append('[').append(entry.getKey()).append("].");
+                    missing = check(item, path, missing);
+                    path.setLength(length);
+                }
+            }
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                if (item != null && isModel(item.getClass())) {
+                    path.append("[].");
+                    missing = check(item, path, missing);
+                    path.setLength(length);
+                }
+            }
+        } else if (isModel(value.getClass())) {
+            path.append('.');
+            missing = check(value, path, missing);
+            path.setLength(length);
+        }
+        return missing;
+    }
+
+    private static Property[] properties(final Class<?> type) {
+        Property[] properties = CACHE.get(type);
+        if (properties == null) {
+            properties = introspect(type);
+            CACHE.putIfAbsent(type, properties);
+        }
+        return properties;
+    }
+
+    private static Property[] introspect(final Class<?> type) {
+        List<Property> properties = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                JsonProperty json = field.getAnnotation(JsonProperty.class);
+                if (json == null || Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                Method getter = getter(type, field);
+                if (getter == null) {
+                    continue;
+                }
+                ApiModelProperty api = getter.getAnnotation(ApiModelProperty.class);
+                if (api == null) {
+                    api = field.getAnnotation(ApiModelProperty.class);
+                }
+                boolean required = api != null && api.required();
+                boolean nested = isContainer(getter.getReturnType());
+                if (!required && !nested) {
+                    continue;
+                }
+                try {
+                    MethodHandle handle = MethodHandles.publicLookup().unreflect(getter).asType(GETTER);
+                    properties.add(new Property(json.value(), handle, required, nested));
+                } catch (IllegalAccessException e) {
+                    // Not a public getter, the field is not part of the public model
+                }
+            }
+        }
+        return properties.toArray(new Property[properties.size()]);
+    }
+
+    private static Method getter(final Class<?> type, final Field field) {
+        String name = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        for (String prefix : new String[]{"get", "is"}) {
+            try {
+                Method method = type.getMethod(prefix + name);
+                if (method.getReturnType() != void.class) {
+                    return method;
+                }
+            } catch (NoSuchMethodException e) {
+                // Try the next naming convention
+            }
+        }
+        return null;
+    }
+
+    private static boolean isContainer(final Class<?> type) {
+        return Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)
+                || type == Object.class || isModel(type);
+    }
+
+    private static boolean isModel(final Class<?> type) {
+        return !type.isEnum() && !type.isPrimitive() && type.getName().startsWith("com.klarna.rest.api.")
+                && type.getName().contains(".model.");
+    }
+
+    private static final class Property {
+        private final String name;
+        private final MethodHandle getter;
+        private final boolean required;
+        private final boolean nested;
+
+        Property(final String name, final MethodHandle getter, final boolean required, final boolean nested) {
+            this.name = name;
+            this.getter = getter;
+            this.required = required;
+            this.nested = nested;
+        }
+
+        Object get(final Object model) {
+            try {
+                return (Object) getter.invokeExact(model);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot read " + name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ContentTypeException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Retry policy with exponential backoff.
+ *
+ * Only failures that leave the request outcome safe to repeat are retried: connection problems
+ * and server-side {@code 429}, {@code 5xx} responses. Retries of mutating requests are only safe
+ * together with an idempotency key.
+ */
+public class RetryPolicy {
+    /**
+     * Policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 1);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final double multiplier;
+
+    /**
+     * Creates a policy.
+     *
+     * @param maxAttempts Maximum amount of attempts including the first one
+     * @param initialDelay Delay before the first retry in milliseconds
+     * @param multiplier Delay multiplier for every next retry
+     */
+    public RetryPolicy(final int maxAttempts, final long initialDelay, final double multiplier) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Checks whether a failure may be retried.
+     *
+     * @param e Failure
+     * @return true if the request may be repeated
+     */
+    public boolean isRetryable(final Exception e) {
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return false;
+        }
+        if (e instanceof IOException) {
+            return true;
+        }
+        if (e instanceof ContentTypeException) {
+            return false;
+        }
+        if (e instanceof ApiException) {
+            int status = ((ApiException) e).getHttpStatus();
+            return status == TOO_MANY_REQUESTS || status >= 500;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the delay before a retry.
+     *
+     * @param attempt Number of the failed attempt, starting with 1
+     * @return delay in milliseconds
+     */
+    public long getDelay(final int attempt) {
+        return (long) (initialDelay * Math.pow(multiplier, attempt - 1));
+    }
+
+    /**
+     * Sleeps before the next attempt.
+     *
+     * @param attempt Number of the failed attempt, starting with 1
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public void backoff(final int attempt) throws InterruptedIOException {
+        long delay = getDelay(attempt);
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a retry");
+        }
+    }
+}
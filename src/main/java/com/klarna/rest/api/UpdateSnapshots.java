@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Last sent state of sessions and orders, used to send only the changed fields of an update.
+ *
+ * Changes are computed per top-level property; a changed nested object or list is sent as a whole,
+ * since the API replaces those rather than merging them. A property that was removed cannot be
+ * expressed in a partial update, so the whole model is sent instead. Resources that validate
+ * the whole body on update, such as Checkout orders, pass their required properties to
+ * {@link #diff(String, ObjectNode, String...)} so these are always sent along with the changes.
+ *
+ * Updates of the same session or order are expected to be sent one at a time.
+ *
+ * <pre>
+ * UpdateSnapshots snapshots = new UpdateSnapshots(10000);
+ * snapshots.remember(orderId, order);
+ * checkoutOrdersApi.update(orderId, order, snapshots);
+ * </pre>
+ */
+public class UpdateSnapshots {
+    private final ObjectMapper mapper = new DefaultMapper();
+    private final int capacity;
+    private final Map<String, ObjectNode> snapshots = new LinkedHashMap<String, ObjectNode>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ObjectNode> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    /**
+     * Creates snapshots.
+     *
+     * @param capacity Maximum amount of sessions or orders, the least recently updated are dropped
+     */
+    public UpdateSnapshots(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Remembers the state known to the server, e.g. after create or fetch.
+     *
+     * @param id Session or order ID
+     * @param model Model or JSON tree of the model
+     */
+    public void remember(final String id, final Object model) {
+        JsonNode tree = model instanceof JsonNode ? (JsonNode) model : mapper.valueToTree(model);
+        if (!(tree instanceof ObjectNode)) {
+            throw new IllegalArgumentException("Not an object: " + tree.getNodeType());
+        }
+        synchronized (snapshots) {
+            snapshots.put(id, (ObjectNode) tree);
+        }
+    }
+
+    /**
+     * Forgets a session or order, e.g. after a failed update.
+     *
+     * @param id Session or order ID
+     */
+    public void forget(final String id) {
+        synchronized (snapshots) {
+            snapshots.remove(id);
+        }
+    }
+
+    public int size() {
+        synchronized (snapshots) {
+            return snapshots.size();
+        }
+    }
+
+    /**
+     * Computes the update to send.
+     *
+     * @param id Session or order ID
+     * @param current Complete new state
+     * @param required Properties sent with every update, whether changed or not
+     * @return changed and required properties, {@code current} if there is no snapshot, or null
+     *         if nothing changed
+     */
+    public ObjectNode diff(final String id, final ObjectNode current, final String... required) {
+        final ObjectNode previous;
+        synchronized (snapshots) {
+            previous = snapshots.get(id);
+        }
+        if (previous == null) {
+            return current;
+        }
+
+        for (Iterator<String> names = previous.fieldNames(); names.hasNext(); ) {
+            if (!current.has(names.next())) {
+                return current;
+            }
+        }
+
+        ObjectNode changes = null;
+        for (Iterator<Map.Entry<String, JsonNode>> fields = current.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().equals(previous.get(field.getKey()))) {
+                if (changes == null) {
+                    changes = current.objectNode();
+                }
+                changes.set(field.getKey(), field.getValue());
+            }
+        }
+        if (changes != null) {
+            for (String name : required) {
+                if (current.has(name) && !changes.has(name)) {
+                    changes.set(name, current.get(name));
+                }
+            }
+        }
+        return changes;
+    }
+}
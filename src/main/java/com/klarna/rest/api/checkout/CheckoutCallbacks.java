@@ -0,0 +1,535 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.checkout;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.klarna.rest.api.DefaultMapper;
+import com.klarna.rest.api.LatencyHistogram;
+import com.klarna.rest.api.checkout.model.CheckoutOrder;
+import com.klarna.rest.api.checkout.model.CheckoutOrderLine;
+import com.klarna.rest.api.checkout.model.CheckoutShippingOption;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatcher of synchronous Checkout callbacks sent to {@code merchant_urls.validation},
+ * {@code merchant_urls.shipping_option_update} and {@code merchant_urls.address_update}.
+ *
+ * The order in the request is decoded with a reader prepared and warmed up in advance. Every
+ * handler runs with a latency budget on a bounded pool of threads: if it does not answer in
+ * time, or no thread is free, the fallback response of its registration is sent instead, so
+ * Klarna always gets an answer. A handler that fails gets the fallback only if one was
+ * registered explicitly; otherwise a validation is answered with {@link Response#error()},
+ * which makes Klarna deny the purchase, and an update keeps the order as it is. Responses are
+ * serialized into pooled buffers, and the latency of every callback is recorded in a
+ * histogram per callback type.
+ *
+ * <pre>
+ * CheckoutCallbacks callbacks = new CheckoutCallbacks()
+ *         .register(CheckoutCallbacks.Type.VALIDATION, validationHandler, 2000);
+ * server.createContext("/validate", callbacks.asHttpHandler(CheckoutCallbacks.Type.VALIDATION));
+ * </pre>
+ */
+public class CheckoutCallbacks {
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(CheckoutCallbacks.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Default maximum amount of handlers running at the same time.
+     */
+    public static final int DEFAULT_MAX_THREADS = 64;
+
+    /**
+     * Callback type.
+     */
+    public enum Type {
+        /**
+         * Order validation before purchase; falls back to accepting the order on timeout.
+         */
+        VALIDATION,
+
+        /**
+         * Shipping option change; falls back to keeping the order as it is.
+         */
+        SHIPPING_OPTION_UPDATE,
+
+        /**
+         * Address change; falls back to keeping the order as it is.
+         */
+        ADDRESS_UPDATE
+    }
+
+    /**
+     * Handles a callback.
+     *
+     * Called from the handler threads, implementations must be thread-safe.
+     */
+    public interface Handler {
+        /**
+         * Handles a callback.
+         *
+         * @param order Order sent by Klarna
+         * @param deadline Remaining latency budget
+         * @return response
+         * @throws IOException on failure, the failure response is sent
+         */
+        Response handle(CheckoutOrder order, Deadline deadline) throws IOException;
+    }
+
+    /**
+     * Sends a response to Klarna, e.g. via a servlet response.
+     */
+    public interface Sink {
+        /**
+         * Sends the response.
+         *
+         * The body buffer is reused once the method returns.
+         *
+         * @param status HTTP status
+         * @param headers Response headers
+         * @param body Body buffer
+         * @param length Body length, 0 for no body
+         * @throws IOException if the response cannot be sent
+         */
+        void send(int status, Map<String, String> headers, byte[] body, int length) throws IOException;
+    }
+
+    /**
+     * Point in time by which the callback has to be answered.
+     */
+    public static final class Deadline {
+        private final long deadline;
+
+        Deadline(final long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Gets the remaining budget.
+         *
+         * @return milliseconds, 0 if the deadline has passed
+         */
+        public long remaining() {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+
+        public boolean isExpired() {
+            return deadline - System.nanoTime() <= 0;
+        }
+    }
+
+    /**
+     * Callback response.
+     */
+    public static final class Response {
+        private final int status;
+        private final String location;
+        private final Object body;
+
+        private Response(final int status, final String location, final Object body) {
+            this.status = status;
+            this.location = location;
+            this.body = body;
+        }
+
+        /**
+         * Accepts the order in a validation callback.
+         *
+         * @return response
+         */
+        public static Response accept() {
+            return new Response(200, null, null);
+        }
+
+        /**
+         * Denies the order in a validation callback and redirects the customer.
+         *
+         * @param url Page explaining why the order was denied
+         * @return response
+         */
+        public static Response deny(final String url) {
+            return new Response(303, url, null);
+        }
+
+        /**
+         * Answers an update callback with the updated order.
+         *
+         * @param order Updated order
+         * @return response
+         */
+        public static Response update(final CheckoutOrder order) {
+            return new Response(200, null, order);
+        }
+
+        /**
+         * Answers a callback with an internal error, which makes Klarna deny the purchase.
+         *
+         * @return response
+         */
+        public static Response error() {
+            return new Response(500, null, null);
+        }
+
+        /**
+         * Rejects the change in an update callback.
+         *
+         * @param errorType Error type, e.g. {@code address_error}
+         * @param errorText Text shown to the customer
+         * @return response
+         */
+        public static Response reject(final String errorType, final String errorText) {
+            Map<String, String> error = new LinkedHashMap<>();
+            error.put("error_type", errorType);
+            error.put("error_text", errorText);
+            return new Response(400, null, error);
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+    }
+
+    private final ObjectMapper mapper = new DefaultMapper();
+    private final ObjectReader reader = mapper.readerFor(CheckoutOrder.class);
+    private final ObjectWriter writer = mapper.writer();
+    private final BlockingQueue<Buffer> buffers;
+    private final ExecutorService executor;
+    private final Map<Type, Registration> registrations = new EnumMap<>(Type.class);
+    private final Map<Type, LatencyHistogram> histograms = new EnumMap<>(Type.class);
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Creates a dispatcher with a pool of 64 buffers.
+     */
+    public CheckoutCallbacks() {
+        this(64);
+    }
+
+    /**
+     * Creates a dispatcher running up to {@link #DEFAULT_MAX_THREADS} handlers at the same time.
+     *
+     * @param pooledBuffers Amount of response buffers kept for reuse
+     */
+    public CheckoutCallbacks(final int pooledBuffers) {
+        this(pooledBuffers, DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param pooledBuffers Amount of response buffers kept for reuse
+     * @param maxThreads Maximum amount of handlers running at the same time, further callbacks
+     *                   get the fallback response right away
+     */
+    public CheckoutCallbacks(final int pooledBuffers, final int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("Max threads must be positive: " + maxThreads);
+        }
+        this.buffers = new ArrayBlockingQueue<>(pooledBuffers);
+        this.executor = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "checkout-callback");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        for (Type type : Type.values()) {
+            histograms.put(type, new LatencyHistogram());
+        }
+        warmUp();
+    }
+
+    /**
+     * Registers a handler with the default fallback of its callback type.
+     *
+     * @param type Callback type
+     * @param handler Handler
+     * @param budget Latency budget in milliseconds, counted from the arrival of the request
+     * @return self
+     */
+    public CheckoutCallbacks register(final Type type, final Handler handler, final long budget) {
+        return register(type, handler, budget, null);
+    }
+
+    /**
+     * Registers a handler.
+     *
+     * @param type Callback type
+     * @param handler Handler
+     * @param budget Latency budget in milliseconds, counted from the arrival of the request
+     * @param fallback Response sent when the handler times out, fails or cannot be started,
+     *                 or null for the default of the callback type
+     * @return self
+     */
+    public CheckoutCallbacks register(final Type type, final Handler handler, final long budget,
+                                      final Response fallback) {
+        synchronized (registrations) {
+            registrations.put(type, new Registration(handler, budget, fallback));
+        }
+        return this;
+    }
+
+    /**
+     * Handles a callback request.
+     *
+     * @param type Callback type
+     * @param request Request body
+     * @param sink Response sink
+     * @throws IOException if the request cannot be decoded or the response cannot be sent
+     */
+    public void handle(final Type type, final InputStream request, final Sink sink) throws IOException {
+        final long started = System.nanoTime();
+        final Registration registration;
+        synchronized (registrations) {
+            registration = registrations.get(type);
+        }
+        if (registration == null) {
+            throw new IllegalStateException("No handler registered for " + type);
+        }
+
+        try {
+            final Deadline deadline = new Deadline(started + TimeUnit.MILLISECONDS.toNanos(registration.budget));
+            final CheckoutOrder order = reader.readValue(request);
+            send(run(type, registration, order, deadline), sink);
+        } finally {
+            histograms.get(type).record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Creates a handler for the JDK's embedded HTTP server.
+     *
+     * @param type Callback type
+     * @return HTTP handler
+     */
+    public HttpHandler asHttpHandler(final Type type) {
+        return new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    CheckoutCallbacks.this.handle(type, exchange.getRequestBody(), new Sink() {
+                        @Override
+                        public void send(int status, Map<String, String> headers, byte[] body, int length)
+                                throws IOException {
+                            for (Map.Entry<String, String> header : headers.entrySet()) {
+                                exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+                            }
+                            exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+                            if (length > 0) {
+                                OutputStream os = exchange.getResponseBody();
+                                os.write(body, 0, length);
+                                os.flush();
+                            }
+                        }
+                    });
+                } finally {
+                    exchange.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets the latency histogram of a callback type.
+     *
+     * @param type Callback type
+     * @return histogram
+     */
+    public LatencyHistogram getHistogram(final Type type) {
+        return histograms.get(type);
+    }
+
+    /**
+     * Gets the amount of handlers that exceeded their budget.
+     *
+     * @return timeout count
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Gets the amount of handlers that failed.
+     *
+     * @return error count
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Gets the amount of callbacks answered with the fallback because all threads were busy.
+     *
+     * @return rejection count
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    private Response run(final Type type, final Registration registration, final CheckoutOrder order,
+                         final Deadline deadline) {
+        final Future<Response> future;
+        try {
+            future = executor.submit(new Callable<Response>() {
+                @Override
+                public Response call() throws Exception {
+                    return registration.handler.handle(order, deadline);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.incrementAndGet();
+            log.warn(type + " callback rejected, all handler threads are busy");
+            return fallback(type, registration, order);
+        }
+
+        try {
+            Response response = future.get(deadline.remaining(), TimeUnit.MILLISECONDS);
+            if (response != null) {
+                return response;
+            }
+            errors.incrementAndGet();
+            log.error(type + " callback returned no response");
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.incrementAndGet();
+            log.warn(type + " callback exceeded its budget, sending the fallback response");
+            return fallback(type, registration, order);
+        } catch (ExecutionException e) {
+            errors.incrementAndGet();
+            log.error(type + " callback failed", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        if (registration.fallback != null) {
+            return registration.fallback;
+        }
+        return type == Type.VALIDATION ? Response.error() : Response.update(order);
+    }
+
+    private static Response fallback(final Type type, final Registration registration, final CheckoutOrder order) {
+        if (registration.fallback != null) {
+            return registration.fallback;
+        }
+        return type == Type.VALIDATION ? Response.accept() : Response.update(order);
+    }
+
+    private void send(final Response response, final Sink sink) throws IOException {
+        Map<String, String> headers = response.location == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.singletonMap("Location", response.location);
+        if (response.body == null) {
+            sink.send(response.status, headers, new byte[0], 0);
+            return;
+        }
+
+        Buffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new Buffer();
+        }
+        try {
+            writer.writeValue(buffer, response.body);
+            Map<String, String> withType = new LinkedHashMap<>(headers);
+            withType.put("Content-Type", MediaType.APPLICATION_JSON);
+            sink.send(response.status, withType, buffer.array(), buffer.size());
+        } finally {
+            buffer.reset();
+            if (buffer.array().length <= BUFFER_SIZE * 4) {
+                buffers.offer(buffer);
+            }
+        }
+    }
+
+    private void warmUp() {
+        try {
+            CheckoutOrder order = new CheckoutOrder()
+                    .purchaseCurrency("EUR")
+                    .orderAmount(100L)
+                    .addOrderLinesItem(new CheckoutOrderLine().name("warm-up").quantity(1L).totalAmount(100L))
+                    .addShippingOptionsItem(new CheckoutShippingOption().id("warm-up"));
+            for (int i = 0; i < 100; i++) {
+                Buffer buffer = new Buffer();
+                writer.writeValue(buffer, order);
+                reader.readValue(buffer.array(), 0, buffer.size());
+            }
+        } catch (IOException e) {
+            log.warn("Cannot warm up the callback reader", e);
+        }
+    }
+
+    private static final class Registration {
+        private final Handler handler;
+        private final long budget;
+        private final Response fallback;
+
+        Registration(final Handler handler, final long budget, final Response fallback) {
+            this.handler = handler;
+            this.budget = budget;
+            this.fallback = fallback;
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(BUFFER_SIZE);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
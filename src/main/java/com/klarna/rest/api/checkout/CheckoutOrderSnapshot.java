@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.checkout;
+
+import com.klarna.rest.api.checkout.model.CheckoutOrder;
+
+import java.util.zip.CRC32;
+
+/**
+ * Result of a change-detecting checkout order read.
+ *
+ * Holds the last known order together with a fingerprint of the response body it was read
+ * from. Pass the snapshot to {@link CheckoutOrdersApi#fetchIfChanged(String, CheckoutOrderSnapshot)}
+ * to skip parsing the next response when the body did not change.
+ */
+public class CheckoutOrderSnapshot {
+    private final CheckoutOrder order;
+    private final long fingerprint;
+    private final boolean changed;
+
+    CheckoutOrderSnapshot(final CheckoutOrder order, final long fingerprint, final boolean changed) {
+        this.order = order;
+        this.fingerprint = fingerprint;
+        this.changed = changed;
+    }
+
+    /**
+     * Gets the order.
+     *
+     * @return the new order if changed, the previous one otherwise
+     */
+    public CheckoutOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * Gets the fingerprint of the response body.
+     *
+     * @return body length in the upper and CRC32 of the body in the lower 32 bits
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Checks whether the order changed since the previous snapshot.
+     *
+     * @return false if the response body was identical and the order was not parsed
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    static long fingerprint(final byte[] body) {
+        if (body == null) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return ((long) body.length << 32) | crc.getValue();
+    }
+}
@@ -16,6 +16,11 @@
 
 package com.klarna.rest.api.checkout;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.klarna.rest.api.PayloadTemplate;
+import com.klarna.rest.api.UpdateSnapshots;
 import com.klarna.rest.api.order_management.OrderManagementOrdersApi;
 import com.klarna.rest.http_transport.HttpTransport;
 import com.klarna.rest.model.ApiException;
@@ -28,6 +33,10 @@ import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.MediaType;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Checkout API: Orders resource.
@@ -37,6 +46,16 @@ import java.io.IOException;
  * {@link OrderManagementOrdersApi Order Management API}
  */
 public class CheckoutOrdersApi extends BaseApi {
+    private static final String HTML_SNIPPET = "html_snippet";
+
+    /**
+     * Properties validated on every update, sent even if unchanged.
+     */
+    private static final String[] REQUIRED_PROPERTIES = {
+            "purchase_country", "purchase_currency", "locale", "order_amount", "order_tax_amount",
+            "order_lines", "merchant_urls"
+    };
+
     protected String PATH = "/checkout/v3/orders";
 
     public CheckoutOrdersApi(final HttpTransport transport) {
@@ -57,14 +76,41 @@ public class CheckoutOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public CheckoutOrder create(final CheckoutOrder order) throws ApiException, IOException {
-        final byte[] data = objectMapper.writeValueAsBytes(order);
-        final ApiResponse response = this.post(PATH, data);
+        return fromJson(createRaw(objectMapper.writeValueAsBytes(order)), CheckoutOrder.class);
+    }
+
+    /**
+     * Creates a new order from a template.
+     *
+     * @param template Properties shared by all orders
+     * @param order Properties of this order
+     * @return server response
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public CheckoutOrder create(final PayloadTemplate<CheckoutOrder> template, final CheckoutOrder order)
+            throws ApiException, IOException {
+        return fromJson(createRaw(template.render(order)), CheckoutOrder.class);
+    }
+
+    /**
+     * Creates a new order from JSON, without mapping the order to and from {@link CheckoutOrder}.
+     *
+     * @param order Order data as JSON
+     * @return server response as JSON
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server.
+     */
+    public byte[] createRaw(final byte[] order) throws ApiException, IOException {
+        final ApiResponse response = this.post(PATH, order);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.CREATED)
                 .expectContentType(MediaType.APPLICATION_JSON);
 
-        return fromJson(response.getBody(), CheckoutOrder.class);
+        return response.getBody();
     }
 
     /**
@@ -84,13 +130,113 @@ public class CheckoutOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public CheckoutOrder fetch(final String orderId) throws ApiException, IOException {
+        return fetch(orderId, CheckoutOrder.class);
+    }
+
+    /**
+     * Use this API call to read an order from Klarna into a custom class.
+     *
+     * Properties missing in the class are skipped, so a small projection class is cheaper to
+     * parse than the full {@link CheckoutOrder} with its HTML snippet.
+     *
+     * @param orderId Order ID
+     * @param type Order class or projection class
+     * @param <T> Order type
+     * @return server response
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public <T> T fetch(final String orderId, final Class<T> type) throws ApiException, IOException {
         final ApiResponse response = this.get(PATH + '/' + orderId);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.OK)
                 .expectContentType(MediaType.APPLICATION_JSON);
 
-        return fromJson(response.getBody(), CheckoutOrder.class);
+        return fromJson(response.getBody(), type);
+    }
+
+    /**
+     * Reads the HTML snippet of an order and writes it to the given writer, e.g. a servlet response.
+     *
+     * The response is scanned for {@code html_snippet} with a streaming parser; neither the order
+     * nor the snippet is materialized.
+     *
+     * @param orderId Order ID
+     * @param writer Destination of the snippet, flushed but not closed
+     * @return amount of characters written, or -1 if the order has no snippet
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public int fetchHtmlSnippet(final String orderId, final Writer writer) throws ApiException, IOException {
+        final ApiResponse response = this.get(PATH + '/' + orderId);
+
+        response.expectSuccessful()
+                .expectStatusCode(Status.OK)
+                .expectContentType(MediaType.APPLICATION_JSON);
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(response.getBody())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return -1;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_STRING && HTML_SNIPPET.equals(name)) {
+                    final int length = parser.getText(writer);
+                    writer.flush();
+                    return length;
+                }
+                parser.skipChildren();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the HTML snippet of an order and writes it UTF-8 encoded to the given stream.
+     *
+     * @see #fetchHtmlSnippet(String, Writer)
+     *
+     * @param orderId Order ID
+     * @param out Destination of the snippet, flushed but not closed
+     * @return amount of characters written, or -1 if the order has no snippet
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public int fetchHtmlSnippet(final String orderId, final OutputStream out) throws ApiException, IOException {
+        return fetchHtmlSnippet(orderId, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads an order and parses it only if the response differs from the previous read.
+     *
+     * Meant for polling: the response body is fingerprinted, and when it matches the
+     * fingerprint of the previous snapshot the order is not deserialized.
+     *
+     * @param orderId Order ID
+     * @param previous Snapshot of the previous read, or null
+     * @return snapshot holding the current order
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public CheckoutOrderSnapshot fetchIfChanged(final String orderId, final CheckoutOrderSnapshot previous)
+            throws ApiException, IOException {
+        final ApiResponse response = this.get(PATH + '/' + orderId);
+
+        response.expectSuccessful()
+                .expectStatusCode(Status.OK)
+                .expectContentType(MediaType.APPLICATION_JSON);
+
+        final long fingerprint = CheckoutOrderSnapshot.fingerprint(response.getBody());
+        if (previous != null && previous.getFingerprint() == fingerprint) {
+            return new CheckoutOrderSnapshot(previous.getOrder(), fingerprint, false);
+        }
+
+        return new CheckoutOrderSnapshot(fromJson(response.getBody(), CheckoutOrder.class), fingerprint, true);
     }
 
     /**
@@ -134,13 +280,61 @@ public class CheckoutOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public CheckoutOrder update(final String orderId, final CheckoutOrder order) throws ApiException, IOException {
-        final byte[] data = objectMapper.writeValueAsBytes(order);
-        final ApiResponse response = this.post(PATH + '/' + orderId, data);
+        return fromJson(updateRaw(orderId, objectMapper.writeValueAsBytes(order)), CheckoutOrder.class);
+    }
+
+    /**
+     * Updates an order from JSON, without mapping the order to and from {@link CheckoutOrder}.
+     *
+     * @param orderId Order ID
+     * @param order Order data as JSON
+     * @return server response as JSON
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server.
+     */
+    public byte[] updateRaw(final String orderId, final byte[] order) throws ApiException, IOException {
+        final ApiResponse response = this.post(PATH + '/' + orderId, order);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.OK)
                 .expectContentType(MediaType.APPLICATION_JSON);
 
-        return fromJson(response.getBody(), CheckoutOrder.class);
+        return response.getBody();
+    }
+
+    /**
+     * Updates an order with the properties changed since the last update.
+     *
+     * Klarna validates the whole order on update, so the required properties (purchase country
+     * and currency, locale, amounts, order lines and merchant URLs) are sent along with the
+     * changed ones. Nothing is sent if the order did not change. If the update fails, the
+     * snapshot is dropped and the next call sends the full order.
+     *
+     * @param orderId Order ID
+     * @param order Complete order data
+     * @param snapshots Last sent orders, updated on success
+     * @return true if an update was sent, false if nothing changed
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public boolean update(final String orderId, final CheckoutOrder order, final UpdateSnapshots snapshots)
+            throws ApiException, IOException {
+        final ObjectNode tree = objectMapper.valueToTree(order);
+        final ObjectNode changes = snapshots.diff(orderId, tree, REQUIRED_PROPERTIES);
+        if (changes == null) {
+            return false;
+        }
+
+        try {
+            updateRaw(orderId, objectMapper.writeValueAsBytes(changes));
+        } catch (ApiException | IOException e) {
+            snapshots.forget(orderId);
+            throw e;
+        }
+
+        snapshots.remember(orderId, tree);
+        return true;
     }
 }
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.checkout;
+
+import com.klarna.rest.api.BoundedExecutor;
+import com.klarna.rest.api.order_management.OrderManagementOrdersApi;
+import com.klarna.rest.api.order_management.model.OrderManagementOrder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiver of Checkout push notifications sent to {@code merchant_urls.push}.
+ *
+ * For every pushed order the receiver fetches the order from the Order Management API, passes
+ * it to a {@link Handler} and acknowledges it. Repeated pushes of an order that is queued,
+ * in flight or recently acknowledged are dropped. Pushes arriving within the coalescing delay
+ * are processed as one batch, with at most {@code concurrency} orders in flight. An order
+ * that fails is forgotten, so the next push Klarna sends for it is processed again.
+ *
+ * <p>The receiver can be fed from any web framework with {@link #receive(String)}, or serve
+ * the push URL itself with {@link #start(InetSocketAddress, String)}.</p>
+ *
+ * <pre>
+ * CheckoutPushReceiver receiver = new CheckoutPushReceiver(client.newOrderManagementOrdersApi(), handler, 8);
+ * receiver.start(new InetSocketAddress(8080), "/create_order");
+ * // merchant_urls.push: https://example.com/create_order?klarna_order_id={checkout.order.id}
+ * </pre>
+ */
+public class CheckoutPushReceiver implements Closeable {
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(CheckoutPushReceiver.class);
+
+    /**
+     * URL param holding the order id.
+     */
+    public static final String ORDER_ID_PARAM = "klarna_order_id";
+
+    /**
+     * Handles pushed orders before they are acknowledged.
+     *
+     * Called from the worker threads, implementations must be thread-safe.
+     */
+    public interface Handler {
+        /**
+         * Handles a completed order.
+         *
+         * @param order Order
+         * @throws IOException to leave the order unacknowledged
+         */
+        void onOrder(OrderManagementOrder order) throws IOException;
+    }
+
+    private final OrderManagementOrdersApi api;
+    private final Handler handler;
+    private final BoundedExecutor executor;
+    private final int batchSize;
+    private final long coalesceDelay;
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private final Map<String, Boolean> done;
+    private final Thread dispatcher;
+    private HttpServer server;
+    private volatile boolean closed;
+
+    private long received;
+    private long duplicates;
+    private long acknowledged;
+    private long failed;
+    private long batches;
+
+    /**
+     * Creates and starts a receiver with batches of 100 orders, a coalescing delay of
+     * 50 milliseconds and memory of 100000 acknowledged orders.
+     *
+     * @param api Order Management orders API
+     * @param handler Order handler
+     * @param concurrency Maximum amount of orders in flight
+     */
+    public CheckoutPushReceiver(final OrderManagementOrdersApi api, final Handler handler, final int concurrency) {
+        this(api, handler, concurrency, 100, 50, 100000);
+    }
+
+    /**
+     * Creates and starts a receiver.
+     *
+     * @param api Order Management orders API
+     * @param handler Order handler
+     * @param concurrency Maximum amount of orders in flight
+     * @param batchSize Maximum amount of orders taken from the queue at once
+     * @param coalesceDelay Time to collect pushes before a batch is started, in milliseconds
+     * @param memory Amount of acknowledged order ids remembered to drop repeated pushes
+     */
+    public CheckoutPushReceiver(final OrderManagementOrdersApi api, final Handler handler, final int concurrency,
+                                final int batchSize, final long coalesceDelay, final int memory) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.api = api;
+        this.handler = handler;
+        this.executor = new BoundedExecutor(concurrency);
+        this.batchSize = batchSize;
+        this.coalesceDelay = coalesceDelay;
+        this.done = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return size() > memory;
+            }
+        };
+        this.dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "checkout-push-receiver");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues a pushed order.
+     *
+     * @param orderId Order id
+     * @return true if the order was queued, false if it is a repeated push
+     */
+    public synchronized boolean receive(final String orderId) {
+        if (closed) {
+            throw new IllegalStateException("Receiver is closed");
+        }
+        received++;
+        if (pending.contains(orderId) || inFlight.contains(orderId) || done.containsKey(orderId)) {
+            duplicates++;
+            return false;
+        }
+        pending.add(orderId);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Serves the push URL on an embedded HTTP server.
+     *
+     * Pushes are answered with {@code 200} as soon as they are queued; requests without
+     * the {@value #ORDER_ID_PARAM} URL param are answered with {@code 400}.
+     *
+     * @param address Address to listen on
+     * @param path Push URL path
+     * @return bound address
+     * @throws IOException if the server cannot be started
+     */
+    public synchronized InetSocketAddress start(final InetSocketAddress address, final String path)
+            throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Receiver is already started");
+        }
+        server = HttpServer.create(address, 0);
+        server.createContext(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (!"POST".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    String orderId = param(exchange.getRequestURI().getRawQuery(), ORDER_ID_PARAM);
+                    if (orderId == null || orderId.isEmpty()) {
+                        exchange.sendResponseHeaders(400, -1);
+                        return;
+                    }
+                    receive(orderId);
+                    exchange.sendResponseHeaders(200, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+        return server.getAddress();
+    }
+
+    /**
+     * Gets the amount of queued orders.
+     *
+     * @return queue depth
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the amount of orders being fetched, handled or acknowledged.
+     *
+     * @return orders in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized long getAcknowledged() {
+        return acknowledged;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the amount of batches taken from the queue.
+     *
+     * @return batch count
+     */
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Stops the server and waits for the orders in flight. Queued orders are dropped.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    @Override
+    public void close() throws InterruptedIOException {
+        HttpServer running;
+        synchronized (this) {
+            closed = true;
+            running = server;
+            notifyAll();
+        }
+        if (running != null) {
+            running.stop(0);
+            ((ExecutorService) running.getExecutor()).shutdown();
+        }
+        dispatcher.interrupt();
+        executor.shutdown();
+    }
+
+    private void dispatch() {
+        while (true) {
+            List<String> batch = new ArrayList<>();
+            try {
+                synchronized (this) {
+                    while (pending.isEmpty() && !closed) {
+                        wait();
+                    }
+                    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesceDelay);
+                    long remaining = coalesceDelay;
+                    while (!closed && pending.size() < batchSize && remaining > 0) {
+                        wait(remaining);
+                        remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    batches++;
+                    Iterator<String> ids = pending.iterator();
+                    while (ids.hasNext() && batch.size() < batchSize) {
+                        String orderId = ids.next();
+                        ids.remove();
+                        inFlight.add(orderId);
+                        batch.add(orderId);
+                    }
+                }
+
+                for (final String orderId : batch) {
+                    executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            process(orderId);
+                        }
+                    });
+                }
+            } catch (InterruptedException | InterruptedIOException e) {
+                return;
+            }
+        }
+    }
+
+    private void process(final String orderId) {
+        boolean success = false;
+        try {
+            handler.onOrder(api.fetch(orderId));
+            api.acknowledgeOrder(orderId);
+            success = true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot process pushed order " + orderId, e);
+        } finally {
+            synchronized (this) {
+                inFlight.remove(orderId);
+                if (success) {
+                    done.put(orderId, Boolean.TRUE);
+                    acknowledged++;
+                } else {
+                    failed++;
+                }
+            }
+        }
+    }
+
+    private static String param(final String query, final String name) throws IOException {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0 && pair.substring(0, separator).equals(name)) {
+                return URLDecoder.decode(pair.substring(separator + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+}
@@ -17,6 +17,7 @@
 package com.klarna.rest.api.hosted_payment_page;
 
 import com.klarna.rest.api.BaseApi;
+import com.klarna.rest.api.PayloadTemplate;
 import com.klarna.rest.api.hosted_payment_page.model.HPPDistributionRequestV1;
 import com.klarna.rest.api.hosted_payment_page.model.HPPSessionCreationRequestV1;
 import com.klarna.rest.api.hosted_payment_page.model.HPPSessionCreationResponseV1;
@@ -66,14 +67,42 @@ public class HPPSessionsApi extends BaseApi {
      */
     public HPPSessionCreationResponseV1 create(final HPPSessionCreationRequestV1 session)
             throws ApiException, IOException {
-        final byte[] data = objectMapper.writeValueAsBytes(session);
-        final ApiResponse response = this.post(PATH, data);
+        return fromJson(createRaw(objectMapper.writeValueAsBytes(session)), HPPSessionCreationResponseV1.class);
+    }
+
+    /**
+     * Creates a new HPP session from a template.
+     *
+     * @param template Properties shared by all sessions
+     * @param session Properties of this session
+     * @return server response
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public HPPSessionCreationResponseV1 create(final PayloadTemplate<HPPSessionCreationRequestV1> template,
+                                               final HPPSessionCreationRequestV1 session)
+            throws ApiException, IOException {
+        return fromJson(createRaw(template.render(session)), HPPSessionCreationResponseV1.class);
+    }
+
+    /**
+     * Creates a new HPP session from JSON, without mapping the session to and from the models.
+     *
+     * @param session Session data as JSON
+     * @return server response as JSON
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server.
+     */
+    public byte[] createRaw(final byte[] session) throws ApiException, IOException {
+        final ApiResponse response = this.post(PATH, session);
 
         response.expectSuccessful()
                 .expectStatusCode(Response.Status.CREATED)
                 .expectContentType(MediaType.APPLICATION_JSON);
 
-        return fromJson(response.getBody(), HPPSessionCreationResponseV1.class);
+        return response.getBody();
     }
 
     /**
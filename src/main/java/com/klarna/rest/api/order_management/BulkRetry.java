@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.klarna.rest.api.RateLimiter;
+import com.klarna.rest.api.RetryPolicy;
+
+import java.io.IOException;
+
+/**
+ * Retry loop shared by the bulk operations.
+ */
+final class BulkRetry {
+    /**
+     * Request of one attempt.
+     *
+     * @param <T> Response type
+     */
+    interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Outcome of all attempts.
+     *
+     * @param <T> Response type
+     */
+    static final class Outcome<T> {
+        final T value;
+        final Exception error;
+        final int attempts;
+
+        Outcome(final T value, final Exception error, final int attempts) {
+            this.value = value;
+            this.error = error;
+            this.attempts = attempts;
+        }
+    }
+
+    private BulkRetry() {
+    }
+
+    /**
+     * Runs a call until it succeeds, fails with a permanent error or runs out of attempts.
+     *
+     * @param retryPolicy Retry policy
+     * @param rateLimiter Limiter applied to every attempt, or null
+     * @param call Call
+     * @param <T> Response type
+     * @return outcome, never throws
+     */
+    static <T> Outcome<T> run(final RetryPolicy retryPolicy, final RateLimiter rateLimiter, final Call<T> call) {
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            try {
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                return new Outcome<T>(call.call(), null, attempt);
+            } catch (IOException | RuntimeException e) {
+                if (attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(e)) {
+                    return new Outcome<T>(null, e, attempt);
+                }
+                try {
+                    retryPolicy.backoff(attempt);
+                } catch (IOException interrupted) {
+                    return new Outcome<T>(null, interrupted, attempt);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.klarna.rest.api.BoundedExecutor;
+import com.klarna.rest.api.RetryPolicy;
+import com.klarna.rest.api.order_management.model.OrderManagementCaptureObject;
+import com.klarna.rest.http_transport.HttpTransport;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Order Management API: creates captures for many orders in parallel.
+ *
+ * Every item is sent with a Klarna idempotency key, which is kept across retries, so a
+ * request repeated after a timeout never captures an order twice. Items are read lazily
+ * from the iterator and at most {@code concurrency} requests are in flight at once.
+ */
+public class OrderManagementBulkCaptures {
+    /**
+     * Capture to be created.
+     */
+    public static class Item extends OrderManagementBulkItem<OrderManagementCaptureObject> {
+        /**
+         * Creates an item with a random idempotency key.
+         *
+         * @param orderId Order id
+         * @param capture Capture data
+         */
+        public Item(final String orderId, final OrderManagementCaptureObject capture) {
+            super(orderId, capture, null);
+        }
+
+        /**
+         * Creates an item.
+         *
+         * @param orderId Order id
+         * @param capture Capture data
+         * @param idempotencyKey Klarna idempotency key, should be stable when the item is resubmitted
+         */
+        public Item(final String orderId, final OrderManagementCaptureObject capture, final String idempotencyKey) {
+            super(orderId, capture, idempotencyKey);
+        }
+
+        public OrderManagementCaptureObject getCapture() {
+            return getData();
+        }
+    }
+
+    /**
+     * Outcome of one item.
+     */
+    public static class Result extends OrderManagementBulkResult<Item> {
+        Result(final Item item, final String captureId, final Exception error, final int attempts) {
+            super(item, captureId, error, attempts);
+        }
+
+        /**
+         * Gets the id of the created capture.
+         *
+         * @return capture id or null if the item failed
+         */
+        public String getCaptureId() {
+            return getId();
+        }
+    }
+
+    /**
+     * Receives results in completion order.
+     *
+     * Called from the worker threads, implementations must be thread-safe.
+     */
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+    private final HttpTransport transport;
+    private final int concurrency;
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * Creates a bulk capture executor.
+     *
+     * @param transport HTTP transport
+     * @param concurrency Maximum amount of requests in flight
+     * @param retryPolicy Retry policy for failed requests
+     */
+    public OrderManagementBulkCaptures(final HttpTransport transport, final int concurrency,
+                                       final RetryPolicy retryPolicy) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.transport = transport;
+        this.concurrency = concurrency;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Creates captures and waits until all items are processed.
+     *
+     * @param items Captures to be created
+     * @param listener Result listener
+     * @return amount of successful captures
+     * @throws IOException if the thread was interrupted
+     */
+    public int capture(final Iterator<Item> items, final Listener listener) throws IOException {
+        final AtomicInteger successful = new AtomicInteger();
+        final BoundedExecutor executor = new BoundedExecutor(concurrency);
+        try {
+            while (items.hasNext()) {
+                final Item item = items.next();
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Result result = execute(item);
+                        if (result.isSuccessful()) {
+                            successful.incrementAndGet();
+                        }
+                        listener.onResult(result);
+                    }
+                });
+            }
+            executor.shutdown();
+        } finally {
+            executor.shutdownNow(0);
+        }
+        return successful.get();
+    }
+
+    /**
+     * Creates captures and waits until all items are processed.
+     *
+     * @param items Captures to be created
+     * @param listener Result listener
+     * @return amount of successful captures
+     * @throws IOException if the thread was interrupted
+     */
+    public int capture(final Iterable<Item> items, final Listener listener) throws IOException {
+        return capture(items.iterator(), listener);
+    }
+
+    Result execute(final Item item) {
+        final OrderManagementCapturesApi api = new OrderManagementCapturesApi(transport, item.getOrderId());
+        final BulkRetry.Outcome<String> outcome = BulkRetry.run(retryPolicy, null, new BulkRetry.Call<String>() {
+            @Override
+            public String call() throws IOException {
+                return api.create(item.getCapture(), item.getIdempotencyKey());
+            }
+        });
+        return new Result(item, outcome.value, outcome.error, outcome.attempts);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import java.util.UUID;
+
+/**
+ * Request of a bulk operation for one order.
+ *
+ * @param <T> Request data type
+ */
+public abstract class OrderManagementBulkItem<T> {
+    private final String orderId;
+    private final T data;
+    private final String idempotencyKey;
+
+    /**
+     * Creates an item.
+     *
+     * @param orderId Order id
+     * @param data Request data
+     * @param idempotencyKey Klarna idempotency key, a random one if null
+     */
+    protected OrderManagementBulkItem(final String orderId, final T data, final String idempotencyKey) {
+        this.orderId = orderId;
+        this.data = data;
+        this.idempotencyKey = idempotencyKey == null ? UUID.randomUUID().toString() : idempotencyKey;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    protected T getData() {
+        return data;
+    }
+}
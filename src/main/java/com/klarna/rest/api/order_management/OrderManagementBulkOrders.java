@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.klarna.rest.api.BoundedExecutor;
+import com.klarna.rest.api.RateLimiter;
+import com.klarna.rest.api.RetryPolicy;
+import com.klarna.rest.http_transport.HttpTransport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Order Management API: runs order lifecycle operations for many orders in parallel.
+ *
+ * Every order is sent with its own idempotency key, kept across retries, so a retried
+ * operation that already took effect is not applied again. A batch never stops on the first failure. Its {@link Result} holds a bitmap of successful
+ * positions in the input and a list of failures, which stays small in the common case.
+ */
+public class OrderManagementBulkOrders {
+    /**
+     * Operation applied to every order in a batch.
+     */
+    public enum Operation {
+        ACKNOWLEDGE,
+        EXTEND_AUTHORIZATION_TIME,
+        RELEASE_REMAINING_AUTHORIZATION,
+        CANCEL
+    }
+
+    /**
+     * Failed order.
+     */
+    public static class Failure {
+        private final int index;
+        private final String orderId;
+        private final Exception error;
+
+        Failure(final int index, final String orderId, final Exception error) {
+            this.index = index;
+            this.orderId = orderId;
+            this.error = error;
+        }
+
+        /**
+         * Gets the position of the order in the input.
+         *
+         * @return zero-based index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+
+        /**
+         * Gets the failure of the last attempt.
+         *
+         * @return {@link com.klarna.rest.model.ApiException} or {@link IOException}
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Outcome of a batch.
+     */
+    public static class Result {
+        private final BitSet succeeded;
+        private final int count;
+        private final List<Failure> failures;
+
+        Result(final BitSet succeeded, final int count, final List<Failure> failures) {
+            this.succeeded = succeeded;
+            this.count = count;
+            this.failures = failures;
+        }
+
+        /**
+         * Gets the amount of processed orders.
+         *
+         * @return input size
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public int getSuccessCount() {
+            return succeeded.cardinality();
+        }
+
+        /**
+         * Checks whether the order at a position of the input succeeded.
+         *
+         * @param index Zero-based index
+         * @return true on success
+         */
+        public boolean isSuccessful(final int index) {
+            return succeeded.get(index);
+        }
+
+        /**
+         * Gets the bitmap of successful positions.
+         *
+         * @return copy of the bitmap
+         */
+        public BitSet getSucceeded() {
+            return (BitSet) succeeded.clone();
+        }
+
+        /**
+         * Gets the failures ordered by position.
+         *
+         * @return failures
+         */
+        public List<Failure> getFailures() {
+            return failures;
+        }
+    }
+
+    private final HttpTransport transport;
+    private final int concurrency;
+    private final RateLimiter rateLimiter;
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * Creates a bulk executor.
+     *
+     * @param transport HTTP transport
+     * @param concurrency Maximum amount of requests in flight
+     * @param rateLimiter Limiter applied to every request including retries, or null
+     * @param retryPolicy Retry policy for failed requests
+     */
+    public OrderManagementBulkOrders(final HttpTransport transport, final int concurrency,
+                                     final RateLimiter rateLimiter, final RetryPolicy retryPolicy) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.transport = transport;
+        this.concurrency = concurrency;
+        this.rateLimiter = rateLimiter;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Acknowledges orders.
+     *
+     * @param orderIds Order ids
+     * @return batch result
+     * @throws IOException if the thread was interrupted
+     */
+    public Result acknowledgeOrders(final Iterable<String> orderIds) throws IOException {
+        return execute(Operation.ACKNOWLEDGE, orderIds.iterator());
+    }
+
+    /**
+     * Extends the authorization time of orders.
+     *
+     * @param orderIds Order ids
+     * @return batch result
+     * @throws IOException if the thread was interrupted
+     */
+    public Result extendAuthorizationTime(final Iterable<String> orderIds) throws IOException {
+        return execute(Operation.EXTEND_AUTHORIZATION_TIME, orderIds.iterator());
+    }
+
+    /**
+     * Releases the remaining authorization of orders.
+     *
+     * @param orderIds Order ids
+     * @return batch result
+     * @throws IOException if the thread was interrupted
+     */
+    public Result releaseRemainingAuthorization(final Iterable<String> orderIds) throws IOException {
+        return execute(Operation.RELEASE_REMAINING_AUTHORIZATION, orderIds.iterator());
+    }
+
+    /**
+     * Cancels orders.
+     *
+     * @param orderIds Order ids
+     * @return batch result
+     * @throws IOException if the thread was interrupted
+     */
+    public Result cancelOrders(final Iterable<String> orderIds) throws IOException {
+        return execute(Operation.CANCEL, orderIds.iterator());
+    }
+
+    /**
+     * Applies an operation to orders and waits until all of them are processed.
+     *
+     * @param operation Operation
+     * @param orderIds Order ids, read lazily
+     * @return batch result
+     * @throws IOException if the thread was interrupted
+     */
+    public Result execute(final Operation operation, final Iterator<String> orderIds) throws IOException {
+        final BitSet succeeded = new BitSet();
+        final List<Failure> failures = new ArrayList<>();
+        final OrderManagementOrdersApi api = new OrderManagementOrdersApi(transport);
+
+        int count = 0;
+        final BoundedExecutor executor = new BoundedExecutor(concurrency);
+        try {
+            while (orderIds.hasNext()) {
+                final String orderId = orderIds.next();
+                final int index = count++;
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Exception error = execute(api, operation, orderId);
+                        if (error == null) {
+                            synchronized (succeeded) {
+                                succeeded.set(index);
+                            }
+                        } else {
+                            synchronized (failures) {
+                                failures.add(new Failure(index, orderId, error));
+                            }
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+        } finally {
+            executor.shutdownNow(0);
+        }
+
+        Collections.sort(failures, new Comparator<Failure>() {
+            @Override
+            public int compare(final Failure a, final Failure b) {
+                return a.index < b.index ? -1 : (a.index == b.index ? 0 : 1);
+            }
+        });
+        return new Result(succeeded, count, failures);
+    }
+
+    private Exception execute(final OrderManagementOrdersApi api, final Operation operation, final String orderId) {
+        final String key = UUID.randomUUID().toString();
+        return BulkRetry.run(retryPolicy, rateLimiter, new BulkRetry.Call<Void>() {
+            @Override
+            public Void call() throws IOException {
+                switch (operation) {
+                    case ACKNOWLEDGE:
+                        api.acknowledgeOrder(orderId, key);
+                        break;
+                    case EXTEND_AUTHORIZATION_TIME:
+                        api.extendAuthorizationTime(orderId, key);
+                        break;
+                    case RELEASE_REMAINING_AUTHORIZATION:
+                        api.releaseRemainingAuthorization(orderId, key);
+                        break;
+                    default:
+                        api.cancelOrder(orderId, key);
+                }
+                return null;
+            }
+        }).error;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.klarna.rest.api.RetryPolicy;
+import com.klarna.rest.api.order_management.model.OrderManagementRefundObject;
+import com.klarna.rest.http_transport.HttpTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Order Management API: creates refunds for many orders in parallel.
+ *
+ * Items are partitioned by order id into {@code concurrency} lanes. Every lane is served by
+ * a single thread, so refunds of one order are sent strictly in submission order and never
+ * race each other, while different orders are refunded concurrently.
+ *
+ * Each lane queues its own items, so a slow order only delays its own lane. The producer
+ * blocks only when {@code backlog} items are waiting over all lanes together.
+ */
+public class OrderManagementBulkRefunds {
+    /**
+     * Default amount of waiting items per lane.
+     */
+    public static final int DEFAULT_LANE_BACKLOG = 100;
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(OrderManagementBulkRefunds.class);
+
+    /**
+     * Refund to be created.
+     */
+    public static class Item extends OrderManagementBulkItem<OrderManagementRefundObject> {
+        /**
+         * Creates an item with a random idempotency key.
+         *
+         * @param orderId Order id
+         * @param refund Refund data
+         */
+        public Item(final String orderId, final OrderManagementRefundObject refund) {
+            super(orderId, refund, null);
+        }
+
+        /**
+         * Creates an item.
+         *
+         * @param orderId Order id
+         * @param refund Refund data
+         * @param idempotencyKey Klarna idempotency key, should be stable when the item is resubmitted
+         */
+        public Item(final String orderId, final OrderManagementRefundObject refund, final String idempotencyKey) {
+            super(orderId, refund, idempotencyKey);
+        }
+
+        public OrderManagementRefundObject getRefund() {
+            return getData();
+        }
+    }
+
+    /**
+     * Outcome of one item.
+     */
+    public static class Result extends OrderManagementBulkResult<Item> {
+        Result(final Item item, final String refundId, final Exception error, final int attempts) {
+            super(item, refundId, error, attempts);
+        }
+
+        /**
+         * Gets the id of the created refund.
+         *
+         * @return refund id or null if the item failed
+         */
+        public String getRefundId() {
+            return getId();
+        }
+    }
+
+    /**
+     * Receives results, in submission order for any single order.
+     *
+     * Called from the worker threads, implementations must be thread-safe.
+     */
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+    /**
+     * Metrics of a finished batch.
+     */
+    public static class Stats {
+        private final int succeeded;
+        private final int failed;
+        private final int retries;
+        private final long elapsed;
+
+        Stats(final int succeeded, final int failed, final int retries, final long elapsed) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retries = retries;
+            this.elapsed = elapsed;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Gets the amount of repeated requests.
+         *
+         * @return retries over all items
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * Gets the batch duration.
+         *
+         * @return elapsed time in milliseconds
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * Gets the throughput of the batch.
+         *
+         * @return processed items per second
+         */
+        public double getThroughput() {
+            return elapsed == 0 ? 0 : (succeeded + failed) * 1000.0 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("succeeded=%d, failed=%d, retries=%d, elapsed=%dms, throughput=%.1f/s",
+                    succeeded, failed, retries, elapsed, getThroughput());
+        }
+    }
+
+    private final HttpTransport transport;
+    private final int concurrency;
+    private final int backlog;
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * Creates a bulk refund processor with {@link #DEFAULT_LANE_BACKLOG} waiting items per lane.
+     *
+     * @param transport HTTP transport
+     * @param concurrency Amount of lanes, i.e. orders refunded at the same time
+     * @param retryPolicy Retry policy for failed requests
+     */
+    public OrderManagementBulkRefunds(final HttpTransport transport, final int concurrency,
+                                      final RetryPolicy retryPolicy) {
+        this(transport, concurrency, concurrency * DEFAULT_LANE_BACKLOG, retryPolicy);
+    }
+
+    /**
+     * Creates a bulk refund processor.
+     *
+     * @param transport HTTP transport
+     * @param concurrency Amount of lanes, i.e. orders refunded at the same time
+     * @param backlog Maximum amount of items waiting over all lanes
+     * @param retryPolicy Retry policy for failed requests
+     */
+    public OrderManagementBulkRefunds(final HttpTransport transport, final int concurrency, final int backlog,
+                                      final RetryPolicy retryPolicy) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        if (backlog < 1) {
+            throw new IllegalArgumentException("Backlog must be positive: " + backlog);
+        }
+        this.transport = transport;
+        this.concurrency = concurrency;
+        this.backlog = backlog;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Creates refunds and waits until all items are processed.
+     *
+     * @param items Refunds to be created
+     * @param listener Result listener
+     * @return batch metrics
+     * @throws IOException if the thread was interrupted
+     */
+    public Stats refund(final Iterator<Item> items, final Listener listener) throws IOException {
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger retries = new AtomicInteger();
+        final long started = System.currentTimeMillis();
+
+        final Semaphore permits = new Semaphore(backlog);
+        final ExecutorService[] lanes = new ExecutorService[concurrency];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor();
+        }
+        try {
+            while (items.hasNext()) {
+                final Item item = items.next();
+                acquire(permits, 1);
+                try {
+                    lanes[lane(item.getOrderId())].execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Result result = execute(item);
+                                (result.isSuccessful() ? succeeded : failed).incrementAndGet();
+                                retries.addAndGet(result.getAttempts() - 1);
+                                listener.onResult(result);
+                            } catch (RuntimeException e) {
+                                log.error("Bulk refund failed", e);
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            acquire(permits, backlog);
+            permits.release(backlog);
+        } finally {
+            for (ExecutorService lane : lanes) {
+                lane.shutdownNow();
+            }
+        }
+
+        return new Stats(succeeded.get(), failed.get(), retries.get(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Creates refunds and waits until all items are processed.
+     *
+     * @param items Refunds to be created
+     * @param listener Result listener
+     * @return batch metrics
+     * @throws IOException if the thread was interrupted
+     */
+    public Stats refund(final Iterable<Item> items, final Listener listener) throws IOException {
+        return refund(items.iterator(), listener);
+    }
+
+    private static void acquire(final Semaphore permits, final int amount) throws InterruptedIOException {
+        try {
+            permits.acquire(amount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for refunds");
+        }
+    }
+
+    private int lane(final String orderId) {
+        return (orderId.hashCode() & Integer.MAX_VALUE) % concurrency;
+    }
+
+    Result execute(final Item item) {
+        final OrderManagementRefundsApi api = new OrderManagementRefundsApi(transport, item.getOrderId());
+        final BulkRetry.Outcome<String> outcome = BulkRetry.run(retryPolicy, null, new BulkRetry.Call<String>() {
+            @Override
+            public String call() throws IOException {
+                return api.create(item.getRefund(), item.getIdempotencyKey());
+            }
+        });
+        return new Result(item, outcome.value, outcome.error, outcome.attempts);
+    }
+}
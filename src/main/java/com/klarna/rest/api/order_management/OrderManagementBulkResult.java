@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import java.io.IOException;
+
+/**
+ * Outcome of one item of a bulk operation.
+ *
+ * @param <I> Item type
+ */
+public abstract class OrderManagementBulkResult<I> {
+    private final I item;
+    private final String id;
+    private final Exception error;
+    private final int attempts;
+
+    protected OrderManagementBulkResult(final I item, final String id, final Exception error, final int attempts) {
+        this.item = item;
+        this.id = id;
+        this.error = error;
+        this.attempts = attempts;
+    }
+
+    public I getItem() {
+        return item;
+    }
+
+    /**
+     * Gets the failure of the last attempt.
+     *
+     * @return {@link com.klarna.rest.model.ApiException}, {@link IOException} or null on success
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    protected String getId() {
+        return id;
+    }
+}
@@ -23,12 +23,15 @@ import com.klarna.rest.api.order_management.model.OrderManagementUpdateShippingI
 import com.klarna.rest.http_transport.HttpTransport;
 import com.klarna.rest.model.ApiException;
 import com.klarna.rest.model.ApiResponse;
+import com.klarna.rest.model.ProtocolException;
 
 
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Order Management API: Captures resource.
@@ -122,15 +125,48 @@ public class OrderManagementCapturesApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public String create(final OrderManagementCaptureObject capture) throws ApiException, IOException {
+        return create(capture, null);
+    }
+
+    /**
+     * Creates capture.
+     *
+     * Repeating the request with the same idempotency key does not create another capture. The ID is
+     * taken from the Capture-Id header, or else from the Location header of the response.
+     *
+     * @param capture Capture data
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @return Capture ID
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws ProtocolException if the response has no ID
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public String create(final OrderManagementCaptureObject capture, final String klarnaIdempotencyKey)
+            throws ApiException, IOException {
         final byte[] data = objectMapper.writeValueAsBytes(capture);
-        final ApiResponse response = this.post(PATH, data);
+
+        Map<String, String> headers = new HashMap<>();
+        if (klarnaIdempotencyKey != null) {
+            headers.put("Klarna-Idempotency-Key", klarnaIdempotencyKey);
+        }
+
+        final ApiResponse response = this.post(PATH, data, headers);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.CREATED);
 
         List<String> captureId = response.getHeader("Capture-Id");
+        if (captureId != null) {
+            return captureId.get(0);
+        }
 
-        return captureId == null ? "" : captureId.get(0);
+        List<String> location = response.getHeader("Location");
+        if (location == null) {
+            throw new ProtocolException("Response has neither a Capture-Id nor a Location header",
+                    response.getStatus());
+        }
+        return location.get(0).substring(location.get(0).lastIndexOf('/') + 1);
     }
 
     /**
@@ -28,6 +28,9 @@ import com.klarna.rest.model.ApiResponse;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Order Management API: Orders resource.
@@ -55,13 +58,48 @@ public class OrderManagementOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public OrderManagementOrder fetch(final String orderId) throws ApiException, IOException {
+        return fetch(orderId, OrderManagementOrder.class);
+    }
+
+    /**
+     * Gets order information into a custom class.
+     *
+     * Properties missing in the class are skipped, so a small projection class is cheaper to
+     * parse than the full {@link OrderManagementOrder}.
+     *
+     * @param orderId The unique order ID
+     * @param type Order class or projection class
+     * @param <T> Order type
+     * @return server response
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public <T> T fetch(final String orderId, final Class<T> type) throws ApiException, IOException {
         final ApiResponse response = this.get(PATH + '/' + orderId);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.OK)
                 .expectContentType(MediaType.APPLICATION_JSON);
 
-        return fromJson(response.getBody(), OrderManagementOrder.class);
+        return fromJson(response.getBody(), type);
+    }
+
+    /**
+     * Gets many orders concurrently.
+     *
+     * @see OrderManagementOrdersFetcher
+     *
+     * @param orderIds Order IDs, duplicates are fetched once
+     * @param concurrency Maximum amount of requests in flight
+     * @return orders by ID in the order of the IDs
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public Map<String, OrderManagementOrder> fetchAll(final Collection<String> orderIds, final int concurrency)
+            throws ApiException, IOException {
+        return new OrderManagementOrdersFetcher(concurrency).fetchAll(this, orderIds);
     }
 
     /**
@@ -75,8 +113,30 @@ public class OrderManagementOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public void releaseRemainingAuthorization(final String orderId) throws ApiException, IOException {
+        releaseRemainingAuthorization(orderId, null);
+    }
+
+    /**
+     * Releases remaining authorization.
+     *
+     * Repeating the request with the same idempotency key does not repeat the operation.
+     *
+     * @param orderId The unique order ID
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public void releaseRemainingAuthorization(final String orderId, final String klarnaIdempotencyKey)
+            throws ApiException, IOException {
         final String path = String.format("%s/%s/%s", PATH, orderId, "release-remaining-authorization");
-        final ApiResponse response = this.post(path, null);
+
+        Map<String, String> headers = new HashMap<>();
+        if (klarnaIdempotencyKey != null) {
+            headers.put("Klarna-Idempotency-Key", klarnaIdempotencyKey);
+        }
+
+        final ApiResponse response = this.post(path, null, headers);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.NO_CONTENT);
@@ -93,8 +153,30 @@ public class OrderManagementOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public void extendAuthorizationTime(final String orderId) throws ApiException, IOException {
+        extendAuthorizationTime(orderId, null);
+    }
+
+    /**
+     * Extends authorization time.
+     *
+     * Repeating the request with the same idempotency key does not repeat the operation.
+     *
+     * @param orderId The unique order ID
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public void extendAuthorizationTime(final String orderId, final String klarnaIdempotencyKey)
+            throws ApiException, IOException {
         final String path = String.format("%s/%s/%s", PATH, orderId, "extend-authorization-time");
-        final ApiResponse response = this.post(path, null);
+
+        Map<String, String> headers = new HashMap<>();
+        if (klarnaIdempotencyKey != null) {
+            headers.put("Klarna-Idempotency-Key", klarnaIdempotencyKey);
+        }
+
+        final ApiResponse response = this.post(path, null, headers);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.NO_CONTENT);
@@ -133,9 +215,30 @@ public class OrderManagementOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public void cancelOrder(final String orderId) throws ApiException, IOException {
+        cancelOrder(orderId, null);
+    }
+
+    /**
+     * Cancels order.
+     *
+     * Repeating the request with the same idempotency key does not repeat the operation.
+     *
+     * @param orderId The unique order ID
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public void cancelOrder(final String orderId, final String klarnaIdempotencyKey)
+            throws ApiException, IOException {
         final String path = String.format("%s/%s/%s", PATH, orderId, "cancel");
 
-        final ApiResponse response = this.post(path, null);
+        Map<String, String> headers = new HashMap<>();
+        if (klarnaIdempotencyKey != null) {
+            headers.put("Klarna-Idempotency-Key", klarnaIdempotencyKey);
+        }
+
+        final ApiResponse response = this.post(path, null, headers);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.NO_CONTENT);
@@ -173,8 +276,30 @@ public class OrderManagementOrdersApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public void acknowledgeOrder(final String orderId) throws ApiException, IOException {
+        acknowledgeOrder(orderId, null);
+    }
+
+    /**
+     * Acknowledges order.
+     *
+     * Repeating the request with the same idempotency key does not repeat the operation.
+     *
+     * @param orderId The unique order ID
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public void acknowledgeOrder(final String orderId, final String klarnaIdempotencyKey)
+            throws ApiException, IOException {
         final String path = String.format("%s/%s/%s", PATH, orderId, "acknowledge");
-        final ApiResponse response = this.post(path, null);
+
+        Map<String, String> headers = new HashMap<>();
+        if (klarnaIdempotencyKey != null) {
+            headers.put("Klarna-Idempotency-Key", klarnaIdempotencyKey);
+        }
+
+        final ApiResponse response = this.post(path, null, headers);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.NO_CONTENT);
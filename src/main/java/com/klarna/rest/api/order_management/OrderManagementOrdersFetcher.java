@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.klarna.rest.api.order_management.model.OrderManagementOrder;
+import com.klarna.rest.model.ApiException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Concurrent fetching of many orders.
+ *
+ * Duplicate order ids are requested only once. At most {@code concurrency} requests are in
+ * flight and orders are delivered as they arrive, so memory use does not grow with the
+ * amount of ids. Orders can be read into a lightweight projection class instead of
+ * {@link OrderManagementOrder}; unknown properties are skipped while parsing.
+ *
+ * <p>Listeners are always invoked on the calling thread.</p>
+ */
+public class OrderManagementOrdersFetcher {
+    /**
+     * Receives fetched orders.
+     *
+     * @param <T> Order type
+     */
+    public interface Listener<T> {
+        /**
+         * Handles a fetched order.
+         *
+         * @param orderId Order id
+         * @param order Order or its projection
+         */
+        void onOrder(String orderId, T order);
+
+        /**
+         * Handles an order that could not be fetched.
+         *
+         * @param orderId Order id
+         * @param error {@link ApiException} or {@link IOException}
+         */
+        void onError(String orderId, Exception error);
+    }
+
+    /**
+     * Maximum amount of requests in flight.
+     */
+    private final int concurrency;
+
+    /**
+     * Creates a fetcher.
+     *
+     * @param concurrency Maximum amount of requests in flight
+     */
+    public OrderManagementOrdersFetcher(final int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Fetches orders.
+     *
+     * @param api Orders API
+     * @param orderIds Order ids, may contain duplicates
+     * @return orders by id in the order of the ids
+     * @throws ApiException if API server returned non-20x HTTP CODE for any order and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public Map<String, OrderManagementOrder> fetchAll(final OrderManagementOrdersApi api,
+                                                      final Collection<String> orderIds)
+            throws ApiException, IOException {
+        final LinkedHashSet<String> unique = new LinkedHashSet<>(orderIds);
+        final Map<String, OrderManagementOrder> fetched = new LinkedHashMap<>(unique.size() * 2);
+        final Exception[] failure = new Exception[1];
+
+        fetchAll(api, unique, OrderManagementOrder.class, new Listener<OrderManagementOrder>() {
+            @Override
+            public void onOrder(String orderId, OrderManagementOrder order) {
+                fetched.put(orderId, order);
+            }
+
+            @Override
+            public void onError(String orderId, Exception error) {
+                if (failure[0] == null) {
+                    failure[0] = error;
+                }
+            }
+        });
+
+        if (failure[0] instanceof IOException) {
+            throw (IOException) failure[0];
+        }
+        if (failure[0] != null) {
+            throw (RuntimeException) failure[0];
+        }
+
+        final Map<String, OrderManagementOrder> result = new LinkedHashMap<>(unique.size() * 2);
+        for (String orderId : unique) {
+            result.put(orderId, fetched.get(orderId));
+        }
+        return result;
+    }
+
+    /**
+     * Fetches orders and passes them to the listener in completion order.
+     *
+     * Failing orders are reported to the listener and do not stop the others.
+     *
+     * @param api Orders API
+     * @param orderIds Order ids, may contain duplicates
+     * @param type Order class or projection class
+     * @param listener Order listener
+     * @param <T> Order type
+     * @return amount of requested orders
+     * @throws IOException if the thread was interrupted
+     */
+    public <T> int fetchAll(final OrderManagementOrdersApi api,
+                            final Collection<String> orderIds,
+                            final Class<T> type,
+                            final Listener<T> listener)
+            throws IOException {
+        final Iterator<String> ids = new LinkedHashSet<>(orderIds).iterator();
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            final CompletionService<Fetched<T>> completion = new ExecutorCompletionService<>(executor);
+            int submitted = 0;
+            int pending = 0;
+            while (pending < concurrency * 2 && ids.hasNext()) {
+                submit(completion, api, ids.next(), type);
+                submitted++;
+                pending++;
+            }
+            while (pending > 0) {
+                Fetched<T> result = completion.take().get();
+                pending--;
+                if (ids.hasNext()) {
+                    submit(completion, api, ids.next(), type);
+                    submitted++;
+                    pending++;
+                }
+                if (result.error == null) {
+                    listener.onOrder(result.orderId, result.order);
+                } else {
+                    listener.onError(result.orderId, result.error);
+                }
+            }
+            return submitted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching orders");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> void submit(final CompletionService<Fetched<T>> completion,
+                                   final OrderManagementOrdersApi api,
+                                   final String orderId,
+                                   final Class<T> type) {
+        completion.submit(new Callable<Fetched<T>>() {
+            @Override
+            public Fetched<T> call() {
+                try {
+                    return new Fetched<>(orderId, api.fetch(orderId, type), null);
+                } catch (IOException | RuntimeException e) {
+                    return new Fetched<>(orderId, null, e);
+                }
+            }
+        });
+    }
+
+    private static class Fetched<T> {
+        private final String orderId;
+        private final T order;
+        private final Exception error;
+
+        Fetched(final String orderId, final T order, final Exception error) {
+            this.orderId = orderId;
+            this.order = order;
+            this.error = error;
+        }
+    }
+}
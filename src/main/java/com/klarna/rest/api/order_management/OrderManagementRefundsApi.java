@@ -22,11 +22,14 @@ import com.klarna.rest.api.order_management.model.OrderManagementRefundObject;
 import com.klarna.rest.http_transport.HttpTransport;
 import com.klarna.rest.model.ApiException;
 import com.klarna.rest.model.ApiResponse;
+import com.klarna.rest.model.ProtocolException;
 
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Order Management API: Refunds resource.
@@ -61,14 +64,48 @@ public class OrderManagementRefundsApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public String create(final OrderManagementRefundObject refund) throws ApiException, IOException {
+        return create(refund, null);
+    }
+
+    /**
+     * Creates a refund.
+     *
+     * Repeating the request with the same idempotency key does not create another refund. The ID is
+     * taken from the Refund-Id header, or else from the Location header of the response.
+     *
+     * @param refund Refund data
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @return Refund ID
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws ProtocolException if the response has no ID
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public String create(final OrderManagementRefundObject refund, final String klarnaIdempotencyKey)
+            throws ApiException, IOException {
         final byte[] data = objectMapper.writeValueAsBytes(refund);
-        final ApiResponse response = this.post(PATH, data);
+
+        Map<String, String> headers = new HashMap<>();
+        if (klarnaIdempotencyKey != null) {
+            headers.put("Klarna-Idempotency-Key", klarnaIdempotencyKey);
+        }
+
+        final ApiResponse response = this.post(PATH, data, headers);
 
         response.expectSuccessful()
                 .expectStatusCode(Status.CREATED);
 
         List<String> refundId = response.getHeader("Refund-Id");
-        return refundId == null ? "" : refundId.get(0);
+        if (refundId != null) {
+            return refundId.get(0);
+        }
+
+        List<String> location = response.getHeader("Location");
+        if (location == null) {
+            throw new ProtocolException("Response has neither a Refund-Id nor a Location header",
+                    response.getStatus());
+        }
+        return location.get(0).substring(location.get(0).lastIndexOf('/') + 1);
     }
 
     /**
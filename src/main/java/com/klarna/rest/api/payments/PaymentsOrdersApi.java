@@ -28,6 +28,8 @@ import com.klarna.rest.model.ApiResponse;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Payments API: Orders resource.
@@ -58,15 +60,71 @@ public class PaymentsOrdersApi extends BaseApi {
      */
     public PaymentsOrder create(final String authorizationToken, final PaymentsCreateOrderRequest order)
             throws ApiException, IOException {
+        return create(authorizationToken, order, null);
+    }
+
+    /**
+     * Creates a new order.
+     *
+     * Repeating the request with the same idempotency key does not create another order.
+     *
+     * @param authorizationToken Authorization token
+     * @param order Order data
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @return server response
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public PaymentsOrder create(final String authorizationToken, final PaymentsCreateOrderRequest order,
+                                final String klarnaIdempotencyKey) throws ApiException, IOException {
+        return fromJson(createRaw(authorizationToken, objectMapper.writeValueAsBytes(order), klarnaIdempotencyKey),
+                PaymentsOrder.class);
+    }
+
+    /**
+     * Creates a new order from JSON, without mapping the order to and from the models.
+     *
+     * @param authorizationToken Authorization token
+     * @param order Order information as JSON
+     * @return server response as JSON
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server.
+     */
+    public byte[] createRaw(final String authorizationToken, final byte[] order) throws ApiException, IOException {
+        return createRaw(authorizationToken, order, null);
+    }
+
+    /**
+     * Creates a new order from JSON, without mapping the order to and from the models.
+     *
+     * Repeating the request with the same idempotency key does not create another order.
+     *
+     * @param authorizationToken Authorization token
+     * @param order Order information as JSON
+     * @param klarnaIdempotencyKey Klarna idempotency key
+     * @return server response as JSON
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server.
+     */
+    public byte[] createRaw(final String authorizationToken, final byte[] order, final String klarnaIdempotencyKey)
+            throws ApiException, IOException {
         final String path = String.format("%s/%s/%s", PATH, authorizationToken, "order");
-        final byte[] data = objectMapper.writeValueAsBytes(order);
-        final ApiResponse response = this.post(path, data);
+
+        Map<String, String> headers = new HashMap<>();
+        if (klarnaIdempotencyKey != null) {
+            headers.put("Klarna-Idempotency-Key", klarnaIdempotencyKey);
+        }
+
+        final ApiResponse response = this.post(path, order, headers);
 
         response.expectSuccessful()
                 .expectStatusCode(Response.Status.OK)
                 .expectContentType(MediaType.APPLICATION_JSON);
 
-        return fromJson(response.getBody(), PaymentsOrder.class);
+        return response.getBody();
     }
 
     /**
@@ -16,7 +16,10 @@
 
 package com.klarna.rest.api.payments;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.klarna.rest.api.BaseApi;
+import com.klarna.rest.api.PayloadTemplate;
+import com.klarna.rest.api.UpdateSnapshots;
 import com.klarna.rest.api.order_management.OrderManagementOrdersApi;
 import com.klarna.rest.api.payments.model.PaymentsMerchantSession;
 import com.klarna.rest.api.payments.model.PaymentsSession;
@@ -55,14 +58,41 @@ public class PaymentsSessionsApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public PaymentsMerchantSession create(final PaymentsSession session) throws ApiException, IOException {
-        final byte[] data = objectMapper.writeValueAsBytes(session);
-        final ApiResponse response = this.post(PATH, data);
+        return fromJson(createRaw(objectMapper.writeValueAsBytes(session)), PaymentsMerchantSession.class);
+    }
+
+    /**
+     * Creates a new credit session from a template.
+     *
+     * @param template Properties shared by all sessions
+     * @param session Properties of this session
+     * @return server response
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public PaymentsMerchantSession create(final PayloadTemplate<PaymentsSession> template,
+                                          final PaymentsSession session) throws ApiException, IOException {
+        return fromJson(createRaw(template.render(session)), PaymentsMerchantSession.class);
+    }
+
+    /**
+     * Creates a new credit session from JSON, without mapping the session to and from the models.
+     *
+     * @param session Session information as JSON
+     * @return server response as JSON
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server.
+     */
+    public byte[] createRaw(final byte[] session) throws ApiException, IOException {
+        final ApiResponse response = this.post(PATH, session);
 
         response.expectSuccessful()
                 .expectStatusCode(Response.Status.OK)
                 .expectContentType(MediaType.APPLICATION_JSON);
 
-        return fromJson(response.getBody(), PaymentsMerchantSession.class);
+        return response.getBody();
     }
 
     /**
@@ -98,10 +128,52 @@ public class PaymentsSessionsApi extends BaseApi {
      * @throws IOException if an error occurred when connecting to the server or when parsing a response.
      */
     public void update(final String sessionId, final PaymentsSession session) throws ApiException, IOException {
-        final byte[] data = objectMapper.writeValueAsBytes(session);
-        final ApiResponse response = this.post(PATH + '/' + sessionId, data);
+        updateRaw(sessionId, objectMapper.writeValueAsBytes(session));
+    }
+
+    /**
+     * Updates an existing credit session from JSON, without mapping the session to the models.
+     *
+     * @param sessionId Session ID
+     * @param session Session information as JSON
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server.
+     */
+    public void updateRaw(final String sessionId, final byte[] session) throws ApiException, IOException {
+        final ApiResponse response = this.post(PATH + '/' + sessionId, session);
 
         response.expectSuccessful()
                 .expectStatusCode(Response.Status.NO_CONTENT);
     }
+
+    /**
+     * Updates an existing credit session with the properties changed since the last update.
+     *
+     * @param sessionId Session ID
+     * @param session Complete session information
+     * @param snapshots Last sent sessions, updated on success
+     * @return true if an update was sent, false if nothing changed
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public boolean update(final String sessionId, final PaymentsSession session, final UpdateSnapshots snapshots)
+            throws ApiException, IOException {
+        final ObjectNode tree = objectMapper.valueToTree(session);
+        final ObjectNode changes = snapshots.diff(sessionId, tree);
+        if (changes == null) {
+            return false;
+        }
+
+        try {
+            updateRaw(sessionId, objectMapper.writeValueAsBytes(changes));
+        } catch (ApiException | IOException e) {
+            snapshots.forget(sessionId);
+            throw e;
+        }
+
+        snapshots.remember(sessionId, tree);
+        return true;
+    }
 }
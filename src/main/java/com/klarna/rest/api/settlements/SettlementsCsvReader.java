@@ -0,0 +1,445 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction.DetailedTypeEnum;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction.TypeEnum;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.OffsetDateTime;
+import org.threeten.bp.ZoneOffset;
+import org.threeten.bp.format.DateTimeParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Streaming reader of Settlements CSV reports.
+ *
+ * The reader decodes the stream in fixed-size chunks and keeps only the current record in memory.
+ * Records are handed to a {@link RowHandler} as a reused {@link Row} view: numbers and
+ * transaction types are parsed straight from the character buffer, and strings are only
+ * created for the columns a handler asks for.
+ *
+ * Columns are resolved by the header line and use the same names as {@link SettlementsTransaction}
+ * JSON properties, e.g. {@code amount}, {@code type}, {@code detailed_type}, {@code currency_code}.
+ *
+ * @see <a href="https://developers.klarna.com/en/gb/kco-v3/settlement-files">Settlement-files</a>
+ */
+public class SettlementsCsvReader implements Closeable {
+    /**
+     * Receives parsed rows.
+     */
+    public interface RowHandler {
+        /**
+         * Handles a single row. The row instance is reused and must not be kept after returning.
+         *
+         * @param row Current row
+         * @throws IOException to stop reading
+         */
+        void onRow(Row row) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final TypeEnum[] TYPES = TypeEnum.values();
+    private static final DetailedTypeEnum[] DETAILED_TYPES = DetailedTypeEnum.values();
+    private static final char[][] TYPE_NAMES = names(TYPES);
+    private static final char[][] DETAILED_TYPE_NAMES = names(DETAILED_TYPES);
+
+    private final Reader reader;
+    private final char delimiter;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private char[] chars = new char[256];
+    private int length;
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int fieldCount;
+    private long recordNumber;
+
+    private final Row row = new Row();
+    private Map<String, Integer> columns;
+
+    /**
+     * Creates a reader of a UTF-8 comma-separated stream.
+     *
+     * @param stream CSV stream
+     */
+    public SettlementsCsvReader(final InputStream stream) {
+        this(new InputStreamReader(stream, StandardCharsets.UTF_8), ',');
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param reader CSV character stream
+     * @param delimiter Field delimiter
+     */
+    public SettlementsCsvReader(final Reader reader, final char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Reads all rows after the header line.
+     *
+     * @param handler Row handler
+     * @return amount of rows handled
+     * @throws IOException if the stream cannot be read, the CSV is malformed or the handler failed
+     */
+    public long read(final RowHandler handler) throws IOException {
+        if (columns == null) {
+            readHeader();
+        }
+
+        long rows = 0;
+        while (readRecord()) {
+            if (fieldCount == 1 && starts[0] == ends[0]) {
+                continue;
+            }
+            handler.onRow(row);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the header columns.
+     *
+     * @return column name to column index
+     * @throws IOException if the header cannot be read
+     */
+    public Map<String, Integer> getColumns() throws IOException {
+        if (columns == null) {
+            readHeader();
+        }
+        return columns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void readHeader() throws IOException {
+        Map<String, Integer> header = new HashMap<>();
+        if (readRecord()) {
+            if (fieldCount > 0 && ends[0] > starts[0] && chars[starts[0]] == '\uFEFF') {
+                starts[0]++;
+            }
+            for (int i = 0; i < fieldCount; i++) {
+                header.put(new String(chars, starts[i], ends[i] - starts[i]).trim(), i);
+            }
+        }
+        columns = Collections.unmodifiableMap(header);
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private boolean readRecord() throws IOException {
+        fieldCount = 0;
+        length = 0;
+
+        int c = next();
+        if (c == -1) {
+            return false;
+        }
+        recordNumber++;
+
+        while (true) {
+            int start = length;
+            if (c == '"') {
+                while (true) {
+                    c = next();
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field in record " + recordNumber);
+                    }
+                    if (c == '"') {
+                        c = next();
+                        if (c != '"') {
+                            break;
+                        }
+                    }
+                    append((char) c);
+                }
+            }
+            while (c != delimiter && c != '\n' && c != '\r' && c != -1) {
+                append((char) c);
+                c = next();
+            }
+            endField(start);
+
+            if (c == delimiter) {
+                c = next();
+                continue;
+            }
+            if (c == '\r') {
+                c = next();
+                if (c != '\n' && c != -1) {
+                    position--;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void append(final char c) {
+        if (length == chars.length) {
+            chars = Arrays.copyOf(chars, length * 2);
+        }
+        chars[length++] = c;
+    }
+
+    private void endField(final int start) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = length;
+        fieldCount++;
+    }
+
+    private static char[][] names(final Enum<?>[] values) {
+        char[][] names = new char[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = values[i].toString().toCharArray();
+        }
+        return names;
+    }
+
+    /**
+     * View of the current CSV record.
+     */
+    public final class Row {
+        private Row() {
+        }
+
+        /**
+         * Gets the record number, counting the header as record 1.
+         *
+         * @return record number
+         */
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+
+        /**
+         * Gets the amount of fields in the record.
+         *
+         * @return field count
+         */
+        public int size() {
+            return fieldCount;
+        }
+
+        /**
+         * Resolves a column index by its header name.
+         *
+         * @param column Column name
+         * @return column index or -1 if the report has no such column
+         */
+        public int indexOf(final String column) {
+            Integer index = columns.get(column);
+            return index == null ? -1 : index;
+        }
+
+        /**
+         * Checks whether a field is absent or empty.
+         *
+         * @param index Column index
+         * @return true if there is no value
+         */
+        public boolean isEmpty(final int index) {
+            return index < 0 || index >= fieldCount || starts[index] == ends[index];
+        }
+
+        public boolean isEmpty(final String column) {
+            return isEmpty(indexOf(column));
+        }
+
+        public String getString(final int index) {
+            return isEmpty(index) ? null : new String(chars, starts[index], ends[index] - starts[index]);
+        }
+
+        public String getString(final String column) {
+            return getString(indexOf(column));
+        }
+
+        /**
+         * Parses an integer field without creating a String.
+         *
+         * @param index Column index
+         * @param defaultValue Value for empty fields
+         * @return parsed value
+         * @throws NumberFormatException if the field is not an integer
+         */
+        public long getLong(final int index, final long defaultValue) {
+            if (isEmpty(index)) {
+                return defaultValue;
+            }
+            int i = starts[index];
+            int end = ends[index];
+            boolean negative = chars[i] == '-';
+            if (negative || chars[i] == '+') {
+                i++;
+            }
+            if (i == end) {
+                throw new NumberFormatException("Not a number in record " + recordNumber + ": " + getString(index));
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = chars[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Not a number in record " + recordNumber + ": " + getString(index));
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        public long getLong(final String column, final long defaultValue) {
+            return getLong(indexOf(column), defaultValue);
+        }
+
+        /**
+         * Gets the transaction amount in minor units.
+         *
+         * @return amount or 0 if empty
+         */
+        public long getAmount() {
+            return getLong("amount", 0);
+        }
+
+        public TypeEnum getType() {
+            int ordinal = match(indexOf("type"), TYPE_NAMES);
+            return ordinal < 0 ? null : TYPES[ordinal];
+        }
+
+        public DetailedTypeEnum getDetailedType() {
+            int ordinal = match(indexOf("detailed_type"), DETAILED_TYPE_NAMES);
+            return ordinal < 0 ? null : DETAILED_TYPES[ordinal];
+        }
+
+        public UUID getUuid(final String column) {
+            String value = getString(column);
+            return value == null ? null : UUID.fromString(value);
+        }
+
+        /**
+         * Parses a date-time or a date field. Plain dates are treated as UTC midnight.
+         *
+         * @param column Column name
+         * @return parsed date or null if empty
+         * @throws DateTimeParseException if the field is not a date
+         */
+        public OffsetDateTime getDateTime(final String column) {
+            String value = getString(column);
+            if (value == null) {
+                return null;
+            }
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atStartOfDay().atOffset(ZoneOffset.UTC);
+            }
+            return OffsetDateTime.parse(value);
+        }
+
+        /**
+         * Maps the row to a transaction model.
+         *
+         * @return new transaction instance
+         */
+        public SettlementsTransaction toTransaction() {
+            SettlementsTransaction transaction = new SettlementsTransaction()
+                    .type(getType())
+                    .detailedType(getDetailedType())
+                    .captureId(getUuid("capture_id"))
+                    .orderId(getUuid("order_id"))
+                    .refundId(getUuid("refund_id"))
+                    .saleDate(getDateTime("sale_date"))
+                    .captureDate(getDateTime("capture_date"))
+                    .merchantReference1(getString("merchant_reference1"))
+                    .merchantReference2(getString("merchant_reference2"))
+                    .paymentReference(getString("payment_reference"))
+                    .payout(getString("payout"))
+                    .shortOrderId(getString("short_order_id"))
+                    .currencyCode(getString("currency_code"))
+                    .purchaseCountry(getString("purchase_country"))
+                    .shippingCountry(getString("shipping_country"))
+                    .initialPaymentMethodType(getString("initial_payment_method_type"))
+                    .merchantCaptureReference(getString("merchant_capture_reference"))
+                    .merchantRefundReference(getString("merchant_refund_reference"));
+            if (!isEmpty("amount")) {
+                transaction.setAmount(getAmount());
+            }
+            if (!isEmpty("vat_rate")) {
+                transaction.setVatRate((int) getLong("vat_rate", 0));
+            }
+            if (!isEmpty("vat_amount")) {
+                transaction.setVatAmount((int) getLong("vat_amount", 0));
+            }
+            if (!isEmpty("initial_number_of_installments")) {
+                transaction.setInitialNumberOfInstallments((int) getLong("initial_number_of_installments", 0));
+            }
+            return transaction;
+        }
+
+        private int match(final int index, final char[][] names) {
+            if (isEmpty(index)) {
+                return -1;
+            }
+            int start = starts[index];
+            int fieldLength = ends[index] - start;
+            for (int n = 0; n < names.length; n++) {
+                char[] name = names[n];
+                if (name.length != fieldLength) {
+                    continue;
+                }
+                int i = 0;
+                while (i < fieldLength && chars[start + i] == name[i]) {
+                    i++;
+                }
+                if (i == fieldLength) {
+                    return n;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.api.settlements.model.SettlementsPagination;
+import com.klarna.rest.api.settlements.model.SettlementsPayout;
+import com.klarna.rest.api.settlements.model.SettlementsPayoutCollection;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.api.settlements.model.SettlementsTransactionCollection;
+import com.klarna.rest.model.ApiException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel pagination over the Settlements collections.
+ *
+ * The first page is fetched as usual. Once {@link SettlementsPagination#getTotal()} is known,
+ * the remaining pages are requested independently by {@code offset}, with at most
+ * {@code concurrency} requests in flight. Pages are delivered either in offset order or
+ * in completion order.
+ *
+ * <p>Page listeners are always invoked on the calling thread.</p>
+ */
+public class SettlementsPageFetcher {
+    /**
+     * URL param holding the page offset.
+     */
+    public static final String OFFSET_PARAM = "offset";
+
+    /**
+     * URL param holding the page size.
+     */
+    public static final String SIZE_PARAM = "size";
+
+    /**
+     * Receives fetched pages.
+     *
+     * @param <T> Collection item type
+     */
+    public interface PageListener<T> {
+        /**
+         * Handles a single page.
+         *
+         * @param offset Offset of the first item on the page
+         * @param items Page items
+         */
+        void onPage(long offset, List<T> items);
+    }
+
+    /**
+     * Maximum amount of page requests in flight.
+     */
+    private final int concurrency;
+
+    /**
+     * Whether pages are delivered in offset order.
+     */
+    private final boolean ordered;
+
+    /**
+     * Creates a fetcher.
+     *
+     * @param concurrency Maximum amount of page requests in flight
+     * @param ordered true to deliver pages in offset order, false to deliver them as they complete
+     */
+    public SettlementsPageFetcher(final int concurrency, final boolean ordered) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        this.ordered = ordered;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Fetches all transactions matching the URL params.
+     *
+     * @param api Transactions API
+     * @param urlParams extra URL params
+     * @return all transactions
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public List<SettlementsTransaction> fetchTransactions(final SettlementsTransactionsApi api,
+                                                          final Map<String, String> urlParams)
+            throws ApiException, IOException {
+        final List<SettlementsTransaction> result = new ArrayList<>();
+        fetchTransactions(api, urlParams, new CollectingListener<>(result));
+        return result;
+    }
+
+    /**
+     * Fetches all transactions matching the URL params and passes them page by page to the listener.
+     *
+     * @param api Transactions API
+     * @param urlParams extra URL params
+     * @param listener Page listener
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public void fetchTransactions(final SettlementsTransactionsApi api,
+                                  final Map<String, String> urlParams,
+                                  final PageListener<SettlementsTransaction> listener)
+            throws ApiException, IOException {
+        fetch(new PageSource<SettlementsTransaction>() {
+            @Override
+            public Page<SettlementsTransaction> fetch(Map<String, String> params) throws ApiException, IOException {
+                SettlementsTransactionCollection collection = api.getTransactions(params);
+                return collection == null
+                        ? new Page<SettlementsTransaction>(null, null)
+                        : new Page<>(collection.getTransactions(), collection.getPagination());
+            }
+        }, urlParams, listener);
+    }
+
+    /**
+     * Fetches all payouts matching the URL params.
+     *
+     * @param api Payouts API
+     * @param urlParams extra URL params
+     * @return all payouts
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public List<SettlementsPayout> fetchPayouts(final SettlementsPayoutsApi api,
+                                                final Map<String, String> urlParams)
+            throws ApiException, IOException {
+        final List<SettlementsPayout> result = new ArrayList<>();
+        fetchPayouts(api, urlParams, new CollectingListener<>(result));
+        return result;
+    }
+
+    /**
+     * Fetches all payouts matching the URL params and passes them page by page to the listener.
+     *
+     * @param api Payouts API
+     * @param urlParams extra URL params
+     * @param listener Page listener
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public void fetchPayouts(final SettlementsPayoutsApi api,
+                             final Map<String, String> urlParams,
+                             final PageListener<SettlementsPayout> listener)
+            throws ApiException, IOException {
+        fetch(new PageSource<SettlementsPayout>() {
+            @Override
+            public Page<SettlementsPayout> fetch(Map<String, String> params) throws ApiException, IOException {
+                SettlementsPayoutCollection collection = api.getAllPayouts(params);
+                return collection == null
+                        ? new Page<SettlementsPayout>(null, null)
+                        : new Page<>(collection.getPayouts(), collection.getPagination());
+            }
+        }, urlParams, listener);
+    }
+
+    private <T> void fetch(final PageSource<T> source,
+                           final Map<String, String> urlParams,
+                           final PageListener<T> listener)
+            throws ApiException, IOException {
+        final Map<String, String> params = urlParams == null
+                ? new HashMap<String, String>()
+                : new HashMap<>(urlParams);
+
+        final Page<T> first = source.fetch(params);
+        final long startOffset = first.pagination != null && first.pagination.getOffset() != null
+                ? first.pagination.getOffset()
+                : parseLong(params.get(OFFSET_PARAM), 0);
+        listener.onPage(startOffset, first.items);
+
+        if (first.pagination == null || first.pagination.getTotal() == null) {
+            return;
+        }
+
+        final long pageSize = parseLong(params.get(SIZE_PARAM), first.items.size());
+        final long total = first.pagination.getTotal();
+        if (pageSize <= 0 || startOffset + pageSize >= total) {
+            return;
+        }
+
+        final List<Long> offsets = new ArrayList<>();
+        for (long offset = startOffset + pageSize; offset < total; offset += pageSize) {
+            offsets.add(offset);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, offsets.size()));
+        try {
+            final CompletionService<Page<T>> completion = new ExecutorCompletionService<>(executor);
+            final List<Future<Page<T>>> futures = new ArrayList<>(offsets.size());
+            for (final Long offset : offsets) {
+                final Map<String, String> pageParams = new HashMap<>(params);
+                pageParams.put(OFFSET_PARAM, String.valueOf(offset));
+                pageParams.put(SIZE_PARAM, String.valueOf(pageSize));
+
+                futures.add(completion.submit(new Callable<Page<T>>() {
+                    @Override
+                    public Page<T> call() throws Exception {
+                        Page<T> page = source.fetch(pageParams);
+                        page.offset = offset;
+                        return page;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                Page<T> page = ordered ? futures.get(i).get() : completion.take().get();
+                listener.onPage(page.offset, page.items);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching pages");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static IOException unwrap(final ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ApiException) {
+            throw (ApiException) cause;
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static long parseLong(final String value, final long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private interface PageSource<T> {
+        Page<T> fetch(Map<String, String> params) throws ApiException, IOException;
+    }
+
+    private static class Page<T> {
+        private final List<T> items;
+        private final SettlementsPagination pagination;
+        private long offset;
+
+        Page(final List<T> items, final SettlementsPagination pagination) {
+            this.items = items == null ? Collections.<T>emptyList() : items;
+            this.pagination = pagination;
+        }
+    }
+
+    private static class CollectingListener<T> implements PageListener<T> {
+        private final List<T> result;
+
+        CollectingListener(final List<T> result) {
+            this.result = result;
+        }
+
+        @Override
+        public void onPage(long offset, List<T> items) {
+            result.addAll(items);
+        }
+    }
+}
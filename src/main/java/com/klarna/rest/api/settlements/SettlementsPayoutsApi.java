@@ -27,6 +27,7 @@ import com.klarna.rest.model.ApiResponse;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -105,6 +106,25 @@ public class SettlementsPayoutsApi extends BaseApi {
         return this.getAllPayouts(null);
     }
 
+    /**
+     * Returns all payouts, fetching the pages in parallel once the total is known.
+     *
+     * @see SettlementsPageFetcher
+     *
+     * @param urlParams extra URL params
+     * @param concurrency maximum amount of page requests in flight
+     * @param ordered true to keep the server order, false to merge pages as they arrive
+     * @return all payouts
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public List<SettlementsPayout> getAllPayouts(final Map<String, String> urlParams,
+                                                 final int concurrency,
+                                                 final boolean ordered) throws ApiException, IOException {
+        return new SettlementsPageFetcher(concurrency, ordered).fetchPayouts(this, urlParams);
+    }
+
     /**
      * Returns a summary of payouts for each currency code in a date range.
      *
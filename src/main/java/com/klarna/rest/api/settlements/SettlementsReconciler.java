@@ -0,0 +1,535 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.api.order_management.model.OrderManagementCapture;
+import com.klarna.rest.api.order_management.model.OrderManagementRefund;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reconciles Order Management captures and refunds against settlement transactions.
+ *
+ * {@code SALE} transactions are joined to captures by {@code capture_id} and {@code RETURN}
+ * transactions to refunds by {@code refund_id}. Both sides may arrive in any order and
+ * interleaved: every record either completes a pending record of the other side, emitting
+ * a {@link Kind#MATCHED} or {@link Kind#AMOUNT_MISMATCH} result right away, or is kept in a
+ * primitive hash index until its counterpart arrives. {@link #finish()} emits the remaining
+ * records as missing on the other side.
+ *
+ * {@code SALE} and {@code RETURN} transactions without a capture or refund ID fall back to
+ * the {@code order_id}: since a keyed transaction may still arrive, they are only joined in
+ * {@link #finish()}, to an unmatched capture or refund of the same order, preferring one
+ * with the same amount. Other transaction types, such as fees, and transactions without any
+ * ID are not reconciled; they are only counted, see {@link #getSkippedCount()}.
+ *
+ * Only unmatched records are held in memory, as a handful of {@code long}s each.
+ * The reconciler is not thread-safe.
+ */
+public class SettlementsReconciler implements SettlementsPageFetcher.PageListener<SettlementsTransaction> {
+    /**
+     * Reconciliation outcome.
+     */
+    public enum Kind {
+        /**
+         * Both sides present with equal amounts.
+         */
+        MATCHED,
+
+        /**
+         * Both sides present with different amounts.
+         */
+        AMOUNT_MISMATCH,
+
+        /**
+         * Captured or refunded, but not settled.
+         */
+        MISSING_SETTLEMENT,
+
+        /**
+         * Settled, but no capture or refund was seen.
+         */
+        MISSING_ORDER_MANAGEMENT
+    }
+
+    /**
+     * Joined record type.
+     */
+    public enum Type {
+        CAPTURE,
+        REFUND
+    }
+
+    /**
+     * Receives reconciliation results as soon as they are known.
+     */
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+    /**
+     * A single reconciliation result.
+     */
+    public static final class Result {
+        private final Kind kind;
+        private final Type type;
+        private final UUID id;
+        private final UUID orderId;
+        private final String paymentReference;
+        private final Long orderManagementAmount;
+        private final Long settlementAmount;
+
+        Result(final Kind kind, final Type type, final UUID id, final UUID orderId, final String paymentReference,
+               final Long orderManagementAmount, final Long settlementAmount) {
+            this.kind = kind;
+            this.type = type;
+            this.id = id;
+            this.orderId = orderId;
+            this.paymentReference = paymentReference;
+            this.orderManagementAmount = orderManagementAmount;
+            this.settlementAmount = settlementAmount;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Gets the capture or refund ID.
+         *
+         * @return ID, or null for a transaction without capture or refund ID that is missing
+         *         in Order Management
+         */
+        public UUID getId() {
+            return id;
+        }
+
+        public UUID getOrderId() {
+            return orderId;
+        }
+
+        /**
+         * Gets the payout reference of the settlement side.
+         *
+         * @return payment reference or null if not settled
+         */
+        public String getPaymentReference() {
+            return paymentReference;
+        }
+
+        /**
+         * Gets the captured or refunded amount.
+         *
+         * @return amount or null if missing in Order Management
+         */
+        public Long getOrderManagementAmount() {
+            return orderManagementAmount;
+        }
+
+        /**
+         * Gets the settled amount.
+         *
+         * @return amount or null if not settled
+         */
+        public Long getSettlementAmount() {
+            return settlementAmount;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + type + " " + id + " order=" + orderId + " payout=" + paymentReference
+                    + " om=" + orderManagementAmount + " settled=" + settlementAmount;
+        }
+    }
+
+    private final Listener listener;
+    private final Side capturedSide;
+    private final Side refundedSide;
+    private final Side salesSide;
+    private final Side returnsSide;
+
+    private final Map<String, Integer> paymentReferenceIds = new HashMap<>();
+    private final List<String> paymentReferences = new ArrayList<>();
+
+    private final Map<UUID, List<Unkeyed>> unkeyedSales = new HashMap<>();
+    private final Map<UUID, List<Unkeyed>> unkeyedReturns = new HashMap<>();
+    private int unkeyedCount;
+
+    private final long[] counts = new long[Kind.values().length];
+    private long skipped;
+
+    /**
+     * Creates a reconciler.
+     *
+     * @param listener Result listener
+     */
+    public SettlementsReconciler(final Listener listener) {
+        this(listener, 1024);
+    }
+
+    /**
+     * Creates a reconciler.
+     *
+     * @param listener Result listener
+     * @param expectedPending Expected amount of unmatched records per side
+     */
+    public SettlementsReconciler(final Listener listener, final int expectedPending) {
+        this.listener = listener;
+        this.capturedSide = new Side(expectedPending);
+        this.refundedSide = new Side(expectedPending);
+        this.salesSide = new Side(expectedPending);
+        this.returnsSide = new Side(expectedPending);
+    }
+
+    /**
+     * Adds an Order Management capture.
+     *
+     * @param orderId Order ID
+     * @param capture Capture
+     */
+    public void addCapture(final String orderId, final OrderManagementCapture capture) {
+        addOrderManagement(Type.CAPTURE, UUID.fromString(capture.getCaptureId()), parse(orderId),
+                amount(capture.getCapturedAmount()));
+    }
+
+    /**
+     * Adds an Order Management refund.
+     *
+     * @param orderId Order ID
+     * @param refund Refund
+     */
+    public void addRefund(final String orderId, final OrderManagementRefund refund) {
+        addOrderManagement(Type.REFUND, UUID.fromString(refund.getRefundId()), parse(orderId),
+                amount(refund.getRefundedAmount()));
+    }
+
+    /**
+     * Adds a settlement transaction. Only {@code SALE} and {@code RETURN} transactions with a
+     * capture or refund ID, or else an order ID, take part in the reconciliation.
+     *
+     * @param transaction Settlement transaction
+     * @return true if the transaction was reconciled or is waiting for its counterpart
+     */
+    public boolean addTransaction(final SettlementsTransaction transaction) {
+        final Type type;
+        final UUID id;
+        if (transaction.getType() == SettlementsTransaction.TypeEnum.SALE) {
+            type = Type.CAPTURE;
+            id = transaction.getCaptureId();
+        } else if (transaction.getType() == SettlementsTransaction.TypeEnum.RETURN) {
+            type = Type.REFUND;
+            id = transaction.getRefundId();
+        } else {
+            skipped++;
+            return false;
+        }
+
+        final long amount = Math.abs(amount(transaction.getAmount()));
+        final int reference = encode(transaction.getPaymentReference());
+        if (id == null) {
+            if (transaction.getOrderId() == null) {
+                skipped++;
+                return false;
+            }
+            final Map<UUID, List<Unkeyed>> unkeyed = type == Type.CAPTURE ? unkeyedSales : unkeyedReturns;
+            List<Unkeyed> rows = unkeyed.get(transaction.getOrderId());
+            if (rows == null) {
+                rows = new ArrayList<>(1);
+                unkeyed.put(transaction.getOrderId(), rows);
+            }
+            rows.add(new Unkeyed(amount, reference));
+            unkeyedCount++;
+            return true;
+        }
+
+        final Side pending = type == Type.CAPTURE ? capturedSide : refundedSide;
+        final int slot = pending.take(id);
+        if (slot == UuidIndex.MISSING) {
+            (type == Type.CAPTURE ? salesSide : returnsSide).add(id, transaction.getOrderId(), amount, reference);
+            return true;
+        }
+
+        long expected = pending.amounts[slot];
+        emit(expected == amount ? Kind.MATCHED : Kind.AMOUNT_MISMATCH, type, id,
+                transaction.getOrderId() != null ? transaction.getOrderId() : pending.orderId(slot),
+                decode(reference), expected, amount);
+        pending.release(slot);
+        return true;
+    }
+
+    @Override
+    public void onPage(long offset, List<SettlementsTransaction> items) {
+        for (SettlementsTransaction transaction : items) {
+            addTransaction(transaction);
+        }
+    }
+
+    /**
+     * Emits all unmatched records as missing on the other side and resets the reconciler.
+     */
+    public void finish() {
+        flush(capturedSide, Type.CAPTURE, Kind.MISSING_SETTLEMENT, unkeyedSales);
+        flush(refundedSide, Type.REFUND, Kind.MISSING_SETTLEMENT, unkeyedReturns);
+        flush(salesSide, Type.CAPTURE, Kind.MISSING_ORDER_MANAGEMENT, null);
+        flush(returnsSide, Type.REFUND, Kind.MISSING_ORDER_MANAGEMENT, null);
+        flushUnkeyed(unkeyedSales, Type.CAPTURE);
+        flushUnkeyed(unkeyedReturns, Type.REFUND);
+        unkeyedCount = 0;
+    }
+
+    /**
+     * Gets the amount of records waiting for their counterpart.
+     *
+     * @return pending records
+     */
+    public int getPendingCount() {
+        return capturedSide.index.size() + refundedSide.index.size()
+                + salesSide.index.size() + returnsSide.index.size() + unkeyedCount;
+    }
+
+    /**
+     * Gets the amount of transactions left out of the reconciliation, e.g. fees.
+     *
+     * @return skipped transactions
+     */
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Gets the amount of emitted results of a kind.
+     *
+     * @param kind Result kind
+     * @return result count
+     */
+    public long getCount(final Kind kind) {
+        return counts[kind.ordinal()];
+    }
+
+    private void addOrderManagement(final Type type, final UUID id, final UUID orderId, final long amount) {
+        final Side settled = type == Type.CAPTURE ? salesSide : returnsSide;
+        final int slot = settled.take(id);
+        if (slot == UuidIndex.MISSING) {
+            (type == Type.CAPTURE ? capturedSide : refundedSide).add(id, orderId, amount, -1);
+            return;
+        }
+
+        long settledAmount = settled.amounts[slot];
+        emit(settledAmount == amount ? Kind.MATCHED : Kind.AMOUNT_MISMATCH, type, id,
+                orderId != null ? orderId : settled.orderId(slot),
+                decode(settled.references[slot]), amount, settledAmount);
+        settled.release(slot);
+    }
+
+    private void flush(final Side side, final Type type, final Kind kind, final Map<UUID, List<Unkeyed>> unkeyed) {
+        final boolean settled = kind == Kind.MISSING_ORDER_MANAGEMENT;
+        final BitSet joined = new BitSet();
+        if (unkeyed != null && !unkeyed.isEmpty()) {
+            // Equal amounts first, so that a mismatch does not take the row of an exact match
+            side.index.forEach(new UuidIndex.Visitor() {
+                @Override
+                public void visit(long msb, long lsb, int slot) {
+                    Unkeyed row = takeUnkeyed(unkeyed, side.orderId(slot), side.amounts[slot], true);
+                    if (row != null) {
+                        joined.set(slot);
+                        emit(Kind.MATCHED, type, new UUID(msb, lsb), side.orderId(slot), decode(row.reference),
+                                row.amount, row.amount);
+                    }
+                }
+            });
+        }
+        side.index.forEach(new UuidIndex.Visitor() {
+            @Override
+            public void visit(long msb, long lsb, int slot) {
+                if (joined.get(slot)) {
+                    return;
+                }
+                long amount = side.amounts[slot];
+                UUID orderId = side.orderId(slot);
+                Unkeyed row = unkeyed == null ? null : takeUnkeyed(unkeyed, orderId, amount, false);
+                if (row != null) {
+                    emit(row.amount == amount ? Kind.MATCHED : Kind.AMOUNT_MISMATCH, type, new UUID(msb, lsb),
+                            orderId, decode(row.reference), amount, row.amount);
+                    return;
+                }
+                emit(kind, type, new UUID(msb, lsb), orderId, decode(side.references[slot]),
+                        settled ? null : amount, settled ? amount : null);
+            }
+        });
+        side.clear();
+    }
+
+    private void flushUnkeyed(final Map<UUID, List<Unkeyed>> unkeyed, final Type type) {
+        for (Map.Entry<UUID, List<Unkeyed>> entry : unkeyed.entrySet()) {
+            for (Unkeyed row : entry.getValue()) {
+                emit(Kind.MISSING_ORDER_MANAGEMENT, type, null, entry.getKey(), decode(row.reference),
+                        null, row.amount);
+            }
+        }
+        unkeyed.clear();
+    }
+
+    private static Unkeyed takeUnkeyed(final Map<UUID, List<Unkeyed>> unkeyed, final UUID orderId,
+                                       final long amount, final boolean exact) {
+        final List<Unkeyed> rows = orderId == null ? null : unkeyed.get(orderId);
+        if (rows == null) {
+            return null;
+        }
+        Unkeyed row = exact ? null : rows.get(0);
+        for (Unkeyed candidate : rows) {
+            if (candidate.amount == amount) {
+                row = candidate;
+                break;
+            }
+        }
+        if (row == null) {
+            return null;
+        }
+        rows.remove(row);
+        if (rows.isEmpty()) {
+            unkeyed.remove(orderId);
+        }
+        return row;
+    }
+
+    private void emit(final Kind kind, final Type type, final UUID id, final UUID orderId,
+                      final String paymentReference, final Long orderManagementAmount, final Long settlementAmount) {
+        counts[kind.ordinal()]++;
+        listener.onResult(new Result(kind, type, id, orderId, paymentReference,
+                orderManagementAmount, settlementAmount));
+    }
+
+    private int encode(final String paymentReference) {
+        if (paymentReference == null) {
+            return -1;
+        }
+        Integer id = paymentReferenceIds.get(paymentReference);
+        if (id == null) {
+            id = paymentReferences.size();
+            paymentReferenceIds.put(paymentReference, id);
+            paymentReferences.add(paymentReference);
+        }
+        return id;
+    }
+
+    private String decode(final int id) {
+        return id < 0 ? null : paymentReferences.get(id);
+    }
+
+    private static UUID parse(final String orderId) {
+        return orderId == null ? null : UUID.fromString(orderId);
+    }
+
+    private static long amount(final Long amount) {
+        return amount == null ? 0 : amount;
+    }
+
+    /**
+     * Settlement transaction known only by its order ID.
+     */
+    private static final class Unkeyed {
+        private final long amount;
+        private final int reference;
+
+        Unkeyed(final long amount, final int reference) {
+            this.amount = amount;
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * Unmatched records of one side: an index from ID to slot and slot columns with a free list.
+     */
+    private static final class Side {
+        private final UuidIndex index;
+        private long[] amounts;
+        private long[] orderIds;
+        private int[] references;
+        private int[] free;
+        private int freeCount;
+        private int used;
+
+        Side(final int expected) {
+            int capacity = Math.max(16, expected);
+            index = new UuidIndex(capacity);
+            amounts = new long[capacity];
+            orderIds = new long[capacity * 2];
+            references = new int[capacity];
+            free = new int[16];
+        }
+
+        void add(final UUID id, final UUID orderId, final long amount, final int reference) {
+            int slot;
+            if (freeCount > 0) {
+                slot = free[--freeCount];
+            } else {
+                if (used == amounts.length) {
+                    int capacity = used * 2;
+                    amounts = Arrays.copyOf(amounts, capacity);
+                    orderIds = Arrays.copyOf(orderIds, capacity * 2);
+                    references = Arrays.copyOf(references, capacity);
+                }
+                slot = used++;
+            }
+            amounts[slot] = amount;
+            orderIds[slot * 2] = orderId == null ? 0 : orderId.getMostSignificantBits();
+            orderIds[slot * 2 + 1] = orderId == null ? 0 : orderId.getLeastSignificantBits();
+            references[slot] = reference;
+
+            int previous = index.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), slot);
+            if (previous != UuidIndex.MISSING) {
+                // Duplicate ID on the same side: the latest record wins
+                release(previous);
+            }
+        }
+
+        int take(final UUID id) {
+            return index.remove(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        }
+
+        UUID orderId(final int slot) {
+            long msb = orderIds[slot * 2];
+            long lsb = orderIds[slot * 2 + 1];
+            return msb == 0 && lsb == 0 ? null : new UUID(msb, lsb);
+        }
+
+        void release(final int slot) {
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = slot;
+        }
+
+        void clear() {
+            index.clear();
+            freeCount = 0;
+            used = 0;
+        }
+    }
+}
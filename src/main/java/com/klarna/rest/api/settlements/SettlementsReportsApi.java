@@ -22,6 +22,7 @@ import com.klarna.rest.model.ApiException;
 import com.klarna.rest.model.ApiResponse;
 
 import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Map;
 
@@ -74,6 +75,31 @@ public class SettlementsReportsApi extends BaseApi {
         return response.getBody();
     }
 
+    /**
+     * Gets CSV payout report and passes every transaction row to the handler.
+     *
+     * @see SettlementsCsvReader
+     * @see <a href="https://developers.klarna.com/api/#settlements-api-get-csv-payout-report">URL params</a>
+     *
+     * @param urlParams extra URL params
+     * @param handler Row handler
+     * @return amount of handled rows
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public long getCSVPayoutReport(final Map<String, String> urlParams, final SettlementsCsvReader.RowHandler handler)
+            throws ApiException, IOException {
+        final byte[] body = this.getCSVPayoutReport(urlParams);
+        if (body == null) {
+            return 0;
+        }
+
+        try (SettlementsCsvReader reader = new SettlementsCsvReader(new ByteArrayInputStream(body))) {
+            return reader.read(handler);
+        }
+    }
+
     /**
      * Gets CSV summary report.
      *
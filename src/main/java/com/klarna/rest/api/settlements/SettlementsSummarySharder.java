@@ -0,0 +1,280 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.api.BaseApi;
+import com.klarna.rest.api.settlements.model.SettlementsPayoutSummary;
+import com.klarna.rest.model.ApiException;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Duration;
+import org.threeten.bp.OffsetDateTime;
+import org.threeten.bp.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a long {@code start_date}/{@code end_date} range of
+ * {@link SettlementsPayoutsApi#getSummary(Map)} into fixed-size windows.
+ *
+ * Windows are fetched concurrently and the per-currency summaries are merged client-side.
+ * Windows that ended before the current time are immutable, so their summaries are cached
+ * for the lifetime of the sharder.
+ */
+public class SettlementsSummarySharder {
+    /**
+     * URL param holding the range start.
+     */
+    public static final String START_DATE_PARAM = "start_date";
+
+    /**
+     * URL param holding the range end.
+     */
+    public static final String END_DATE_PARAM = "end_date";
+
+    /**
+     * Date format accepted by the Settlements API.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
+
+    /**
+     * Window size.
+     */
+    private final Duration window;
+
+    /**
+     * Maximum amount of window requests in flight.
+     */
+    private final int concurrency;
+
+    /**
+     * Clock used to decide whether a window is closed.
+     */
+    private final Clock clock;
+
+    /**
+     * Summaries of closed windows, keyed by the window query string.
+     */
+    private final ConcurrentMap<String, SettlementsPayoutSummary[]> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a sharder.
+     *
+     * @param window Window size
+     * @param concurrency Maximum amount of window requests in flight
+     */
+    public SettlementsSummarySharder(final Duration window, final int concurrency) {
+        this(window, concurrency, Clock.systemUTC());
+    }
+
+    /**
+     * Creates a sharder.
+     *
+     * @param window Window size
+     * @param concurrency Maximum amount of window requests in flight
+     * @param clock Clock used to decide whether a window is closed
+     */
+    public SettlementsSummarySharder(final Duration window, final int concurrency, final Clock clock) {
+        if (window.getSeconds() < 1) {
+            throw new IllegalArgumentException("Window must be at least one second: " + window);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.window = window;
+        this.concurrency = concurrency;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns a summary of payouts for each currency code in a date range.
+     *
+     * Both {@code start_date} and {@code end_date} URL params are required, and the start must not
+     * be after the end. Every window covers {@code [start, start + window - 1s]}, so payouts on
+     * window boundaries are not counted twice.
+     *
+     * @param api Payouts API
+     * @param urlParams URL params including start_date and end_date
+     * @return merged summary, one entry per currency
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public SettlementsPayoutSummary[] getSummary(final SettlementsPayoutsApi api, final Map<String, String> urlParams)
+            throws ApiException, IOException {
+        if (urlParams == null || urlParams.get(START_DATE_PARAM) == null || urlParams.get(END_DATE_PARAM) == null) {
+            throw new IllegalArgumentException("Both start_date and end_date are required");
+        }
+
+        final OffsetDateTime start = OffsetDateTime.parse(urlParams.get(START_DATE_PARAM));
+        final OffsetDateTime end = OffsetDateTime.parse(urlParams.get(END_DATE_PARAM));
+        if (start.isAfter(end)) {
+            throw new IllegalArgumentException("start_date " + urlParams.get(START_DATE_PARAM)
+                    + " is after end_date " + urlParams.get(END_DATE_PARAM));
+        }
+        final OffsetDateTime now = OffsetDateTime.now(clock);
+
+        final List<Map<String, String>> windows = new ArrayList<>();
+        final List<Boolean> closed = new ArrayList<>();
+        for (OffsetDateTime from = start; !from.isAfter(end); from = from.plus(window)) {
+            OffsetDateTime to = from.plus(window).minusSeconds(1);
+            if (to.isAfter(end)) {
+                to = end;
+            }
+            Map<String, String> params = new TreeMap<>(urlParams);
+            params.put(START_DATE_PARAM, DATE_FORMAT.format(from));
+            params.put(END_DATE_PARAM, DATE_FORMAT.format(to));
+            windows.add(params);
+            closed.add(to.isBefore(now));
+        }
+
+        final List<SettlementsPayoutSummary[]> results = new ArrayList<>(windows.size());
+        final List<Future<SettlementsPayoutSummary[]>> futures = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, windows.size()));
+        try {
+            for (int i = 0; i < windows.size(); i++) {
+                final Map<String, String> params = windows.get(i);
+                final boolean cacheable = closed.get(i);
+                final SettlementsPayoutSummary[] cached = cacheable ? cache.get(cacheKey(params)) : null;
+                if (cached != null) {
+                    results.add(cached);
+                    continue;
+                }
+
+                futures.add(executor.submit(new Callable<SettlementsPayoutSummary[]>() {
+                    @Override
+                    public SettlementsPayoutSummary[] call() throws Exception {
+                        SettlementsPayoutSummary[] summary = api.getSummary(params);
+                        if (summary == null) {
+                            summary = new SettlementsPayoutSummary[0];
+                        }
+                        if (cacheable) {
+                            cache.put(cacheKey(params), summary);
+                        }
+                        return summary;
+                    }
+                }));
+            }
+
+            for (Future<SettlementsPayoutSummary[]> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching summaries");
+        } catch (ExecutionException e) {
+            throw SettlementsPageFetcher.unwrap(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return merge(results);
+    }
+
+    /**
+     * Gets the amount of cached windows.
+     *
+     * @return cache size
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Drops all cached windows.
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Merges window summaries into one summary per currency.
+     *
+     * @param summaries Window summaries
+     * @return merged summaries in order of first appearance
+     */
+    static SettlementsPayoutSummary[] merge(final List<SettlementsPayoutSummary[]> summaries) {
+        final Map<String, SettlementsPayoutSummary> merged = new LinkedHashMap<>();
+        for (SettlementsPayoutSummary[] window : summaries) {
+            for (SettlementsPayoutSummary summary : window) {
+                String currency = summary.getSummarySettlementCurrency();
+                SettlementsPayoutSummary total = merged.get(currency);
+                if (total == null) {
+                    total = new SettlementsPayoutSummary().summarySettlementCurrency(currency);
+                    merged.put(currency, total);
+                }
+                add(total, summary);
+            }
+        }
+        return merged.values().toArray(new SettlementsPayoutSummary[merged.size()]);
+    }
+
+    private static void add(final SettlementsPayoutSummary total, final SettlementsPayoutSummary s) {
+        total.setSummaryTotalFeeCorrectionAmount(
+                sum(total.getSummaryTotalFeeCorrectionAmount(), s.getSummaryTotalFeeCorrectionAmount()));
+        total.setSummaryTotalReleaseAmount(sum(total.getSummaryTotalReleaseAmount(), s.getSummaryTotalReleaseAmount()));
+        total.setSummaryTotalTaxAmount(sum(total.getSummaryTotalTaxAmount(), s.getSummaryTotalTaxAmount()));
+        total.setSummaryTotalSettlementAmount(
+                sum(total.getSummaryTotalSettlementAmount(), s.getSummaryTotalSettlementAmount()));
+        total.setSummaryTotalHoldbackAmount(sum(total.getSummaryTotalHoldbackAmount(), s.getSummaryTotalHoldbackAmount()));
+        total.setSummaryTotalReversalAmount(sum(total.getSummaryTotalReversalAmount(), s.getSummaryTotalReversalAmount()));
+        total.setSummaryTotalReturnAmount(sum(total.getSummaryTotalReturnAmount(), s.getSummaryTotalReturnAmount()));
+        total.setSummaryTotalFeeAmount(sum(total.getSummaryTotalFeeAmount(), s.getSummaryTotalFeeAmount()));
+        total.setSummaryTotalCommissionAmount(
+                sum(total.getSummaryTotalCommissionAmount(), s.getSummaryTotalCommissionAmount()));
+        total.setSummaryTotalSaleAmount(sum(total.getSummaryTotalSaleAmount(), s.getSummaryTotalSaleAmount()));
+        total.setSummaryTotalRepayAmount(sum(total.getSummaryTotalRepayAmount(), s.getSummaryTotalRepayAmount()));
+
+        OffsetDateTime start = s.getSummaryPayoutDateStart();
+        if (start != null && (total.getSummaryPayoutDateStart() == null
+                || start.isBefore(total.getSummaryPayoutDateStart()))) {
+            total.setSummaryPayoutDateStart(start);
+        }
+        OffsetDateTime end = s.getSummaryPayoutDateEnd();
+        if (end != null && (total.getSummaryPayoutDateEnd() == null
+                || end.isAfter(total.getSummaryPayoutDateEnd()))) {
+            total.setSummaryPayoutDateEnd(end);
+        }
+    }
+
+    private static Long sum(final Long a, final Long b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a + b;
+    }
+
+    private static String cacheKey(final Map<String, String> params) {
+        return BaseApi.buildQueryString(params);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.api.settlements.model.SettlementsPayout;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.model.ApiException;
+import org.threeten.bp.OffsetDateTime;
+import org.threeten.bp.format.DateTimeFormatter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Incremental settlements synchronization.
+ *
+ * Fetches only payouts newer than the stored checkpoint, together with their transactions,
+ * and hands them over to a {@link Handler} in payout date order. The checkpoint is
+ * persisted in a local file after every handled payout, so an interrupted sync resumes
+ * with the first payout that was not handled yet.
+ *
+ * <p>Delivery is at-least-once: a crash between a handled payout and the checkpoint write
+ * delivers that payout again on the next run, so handlers should be idempotent.</p>
+ */
+public class SettlementsSync {
+    /**
+     * Date format accepted by the Settlements API.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
+
+    /**
+     * Orders payouts by payout date and then by payment reference.
+     */
+    private static final Comparator<SettlementsPayout> PAYOUT_ORDER = new Comparator<SettlementsPayout>() {
+        @Override
+        public int compare(SettlementsPayout a, SettlementsPayout b) {
+            return Checkpoint.of(a).compareTo(Checkpoint.of(b));
+        }
+    };
+
+    /**
+     * Receives synchronized payouts.
+     */
+    public interface Handler {
+        /**
+         * Handles a payout that is newer than the checkpoint.
+         *
+         * @param payout Payout
+         * @param transactions All transactions of the payout
+         * @throws IOException to stop the sync without moving the checkpoint past this payout
+         */
+        void onPayout(SettlementsPayout payout, List<SettlementsTransaction> transactions) throws IOException;
+    }
+
+    /**
+     * Position of the last handled payout.
+     */
+    public static final class Checkpoint implements Comparable<Checkpoint> {
+        private static final String PAYOUT_DATE = "payout_date";
+        private static final String PAYMENT_REFERENCE = "payment_reference";
+
+        private final OffsetDateTime payoutDate;
+        private final String paymentReference;
+
+        public Checkpoint(final OffsetDateTime payoutDate, final String paymentReference) {
+            if (payoutDate == null) {
+                throw new IllegalArgumentException("Payout date is required");
+            }
+            this.payoutDate = payoutDate;
+            this.paymentReference = paymentReference == null ? "" : paymentReference;
+        }
+
+        static Checkpoint of(final SettlementsPayout payout) {
+            return new Checkpoint(
+                    payout.getPayoutDate() == null ? OffsetDateTime.MIN : payout.getPayoutDate(),
+                    payout.getPaymentReference());
+        }
+
+        public OffsetDateTime getPayoutDate() {
+            return payoutDate;
+        }
+
+        public String getPaymentReference() {
+            return paymentReference;
+        }
+
+        @Override
+        public int compareTo(Checkpoint o) {
+            int result = payoutDate.toInstant().compareTo(o.payoutDate.toInstant());
+            return result != 0 ? result : paymentReference.compareTo(o.paymentReference);
+        }
+
+        /**
+         * Reads a checkpoint file.
+         *
+         * @param file Checkpoint file
+         * @return checkpoint or null if the file does not exist
+         * @throws IOException if the file cannot be read or is corrupted
+         */
+        public static Checkpoint read(final File file) throws IOException {
+            if (!file.exists()) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (InputStream is = new FileInputStream(file)) {
+                properties.load(is);
+            }
+            String date = properties.getProperty(PAYOUT_DATE);
+            if (date == null) {
+                throw new IOException("Corrupted checkpoint file: " + file);
+            }
+            return new Checkpoint(OffsetDateTime.parse(date), properties.getProperty(PAYMENT_REFERENCE));
+        }
+
+        /**
+         * Atomically replaces the checkpoint file.
+         *
+         * @param file Checkpoint file
+         * @throws IOException if the file cannot be written
+         */
+        public void write(final File file) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty(PAYOUT_DATE, payoutDate.toString());
+            properties.setProperty(PAYMENT_REFERENCE, paymentReference);
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream os = new FileOutputStream(tmp)) {
+                properties.store(os, "Settlements sync checkpoint");
+                os.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public String toString() {
+            return payoutDate + "/" + paymentReference;
+        }
+    }
+
+    private final SettlementsPayoutsApi payoutsApi;
+    private final SettlementsTransactionsApi transactionsApi;
+    private final SettlementsPageFetcher fetcher;
+    private final File checkpointFile;
+
+    /**
+     * Start date used when there is no checkpoint yet.
+     */
+    private OffsetDateTime initialStartDate;
+
+    /**
+     * Creates a sync engine.
+     *
+     * @param payoutsApi Payouts API
+     * @param transactionsApi Transactions API
+     * @param fetcher Page fetcher used for payouts and transactions
+     * @param checkpointFile Local file holding the checkpoint
+     */
+    public SettlementsSync(final SettlementsPayoutsApi payoutsApi,
+                           final SettlementsTransactionsApi transactionsApi,
+                           final SettlementsPageFetcher fetcher,
+                           final File checkpointFile) {
+        this.payoutsApi = payoutsApi;
+        this.transactionsApi = transactionsApi;
+        this.fetcher = fetcher;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Sets the start date used when there is no checkpoint yet.
+     *
+     * @param initialStartDate Start date, or null to sync the whole history
+     * @return self
+     */
+    public SettlementsSync setInitialStartDate(final OffsetDateTime initialStartDate) {
+        this.initialStartDate = initialStartDate;
+        return this;
+    }
+
+    /**
+     * Gets the stored checkpoint.
+     *
+     * @return checkpoint or null if nothing was synchronized yet
+     * @throws IOException if the checkpoint file cannot be read
+     */
+    public Checkpoint getCheckpoint() throws IOException {
+        return Checkpoint.read(checkpointFile);
+    }
+
+    /**
+     * Synchronizes all payouts newer than the checkpoint.
+     *
+     * @param handler Payout handler
+     * @return amount of handled payouts
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server, parsing a response,
+     *                     accessing the checkpoint file or in the handler.
+     */
+    public int sync(final Handler handler) throws ApiException, IOException {
+        final Checkpoint checkpoint = getCheckpoint();
+
+        final Map<String, String> params = new HashMap<>();
+        OffsetDateTime startDate = checkpoint != null ? checkpoint.getPayoutDate() : initialStartDate;
+        if (startDate != null) {
+            params.put("start_date", DATE_FORMAT.format(startDate));
+        }
+
+        final List<SettlementsPayout> payouts = new ArrayList<>();
+        for (SettlementsPayout payout : fetcher.fetchPayouts(payoutsApi, params)) {
+            if (checkpoint == null || Checkpoint.of(payout).compareTo(checkpoint) > 0) {
+                payouts.add(payout);
+            }
+        }
+        Collections.sort(payouts, PAYOUT_ORDER);
+
+        for (SettlementsPayout payout : payouts) {
+            Map<String, String> transactionParams = new HashMap<>();
+            transactionParams.put("payment_reference", payout.getPaymentReference());
+
+            handler.onPayout(payout, fetcher.fetchTransactions(transactionsApi, transactionParams));
+            Checkpoint.of(payout).write(checkpointFile);
+        }
+
+        return payouts.size();
+    }
+}
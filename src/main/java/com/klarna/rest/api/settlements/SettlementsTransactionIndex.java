@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.model.ApiException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process lookup indexes over fetched settlement transactions.
+ *
+ * Transactions are indexed by {@code order_id}, {@code short_order_id}, {@code merchant_reference1},
+ * {@code merchant_reference2}, {@code capture_id} and {@code payment_reference} as they are added.
+ * Each index maps a key to the latest row and chains older rows with the same key through an
+ * {@code int} array, so an index costs a hash entry per distinct key plus four bytes per row.
+ *
+ * The index can be fed by {@link SettlementsPageFetcher} or {@link SettlementsSync} and is safe
+ * for concurrent lookups while pages are being added.
+ */
+public class SettlementsTransactionIndex implements SettlementsPageFetcher.PageListener<SettlementsTransaction> {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<SettlementsTransaction> rows = new ArrayList<>();
+
+    private final UuidChains orderIds = new UuidChains();
+    private final UuidChains captureIds = new UuidChains();
+    private final StringChains shortOrderIds = new StringChains();
+    private final StringChains merchantReferences1 = new StringChains();
+    private final StringChains merchantReferences2 = new StringChains();
+    private final StringChains paymentReferences = new StringChains();
+
+    /**
+     * Fetches transactions and adds them to the index.
+     *
+     * @param api Transactions API
+     * @param urlParams extra URL params, e.g. a payment_reference of a new payout
+     * @param fetcher Page fetcher
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public void load(final SettlementsTransactionsApi api,
+                     final Map<String, String> urlParams,
+                     final SettlementsPageFetcher fetcher) throws ApiException, IOException {
+        fetcher.fetchTransactions(api, urlParams, this);
+    }
+
+    @Override
+    public void onPage(long offset, List<SettlementsTransaction> items) {
+        addAll(items);
+    }
+
+    /**
+     * Adds transactions to the index.
+     *
+     * @param transactions Transactions
+     */
+    public void addAll(final List<SettlementsTransaction> transactions) {
+        lock.writeLock().lock();
+        try {
+            for (SettlementsTransaction transaction : transactions) {
+                int row = rows.size();
+                rows.add(transaction);
+                orderIds.add(transaction.getOrderId(), row);
+                captureIds.add(transaction.getCaptureId(), row);
+                shortOrderIds.add(transaction.getShortOrderId(), row);
+                merchantReferences1.add(transaction.getMerchantReference1(), row);
+                merchantReferences2.add(transaction.getMerchantReference2(), row);
+                paymentReferences.add(transaction.getPaymentReference(), row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the amount of indexed transactions.
+     *
+     * @return size
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<SettlementsTransaction> findByOrderId(final UUID orderId) {
+        return find(orderIds, orderId);
+    }
+
+    public List<SettlementsTransaction> findByCaptureId(final UUID captureId) {
+        return find(captureIds, captureId);
+    }
+
+    public List<SettlementsTransaction> findByShortOrderId(final String shortOrderId) {
+        return find(shortOrderIds, shortOrderId);
+    }
+
+    public List<SettlementsTransaction> findByMerchantReference1(final String merchantReference1) {
+        return find(merchantReferences1, merchantReference1);
+    }
+
+    public List<SettlementsTransaction> findByMerchantReference2(final String merchantReference2) {
+        return find(merchantReferences2, merchantReference2);
+    }
+
+    /**
+     * Finds all transactions of a payout.
+     *
+     * @param paymentReference Payout reference
+     * @return transactions in insertion order
+     */
+    public List<SettlementsTransaction> findByPaymentReference(final String paymentReference) {
+        return find(paymentReferences, paymentReference);
+    }
+
+    /**
+     * Finds the payouts that contain an order.
+     *
+     * @param orderId Order ID
+     * @return distinct payment references
+     */
+    public List<String> findPaymentReferencesByOrderId(final UUID orderId) {
+        List<String> references = new ArrayList<>();
+        for (SettlementsTransaction transaction : findByOrderId(orderId)) {
+            String reference = transaction.getPaymentReference();
+            if (reference != null && !references.contains(reference)) {
+                references.add(reference);
+            }
+        }
+        return references;
+    }
+
+    private <K> List<SettlementsTransaction> find(final Chains<K> chains, final K key) {
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            List<SettlementsTransaction> result = new ArrayList<>();
+            for (int row = chains.head(key); row >= 0; row = chains.next[row]) {
+                result.add(rows.get(row));
+            }
+            Collections.reverse(result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Key to row chains: the head is the latest row, {@code next} links to older rows.
+     */
+    private abstract static class Chains<K> {
+        int[] next = new int[64];
+
+        abstract int head(K key);
+
+        abstract int replaceHead(K key, int row);
+
+        void add(final K key, final int row) {
+            if (row == next.length) {
+                next = Arrays.copyOf(next, row * 2);
+            }
+            next[row] = key == null ? -1 : replaceHead(key, row);
+        }
+    }
+
+    private static final class UuidChains extends Chains<UUID> {
+        private final UuidIndex heads = new UuidIndex(64);
+
+        @Override
+        int head(final UUID key) {
+            return heads.get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+        }
+
+        @Override
+        int replaceHead(final UUID key, final int row) {
+            return heads.put(key.getMostSignificantBits(), key.getLeastSignificantBits(), row);
+        }
+    }
+
+    private static final class StringChains extends Chains<String> {
+        private final Map<String, Integer> heads = new HashMap<>();
+
+        @Override
+        int head(final String key) {
+            Integer row = heads.get(key);
+            return row == null ? -1 : row;
+        }
+
+        @Override
+        int replaceHead(final String key, final int row) {
+            Integer previous = heads.put(key, row);
+            return previous == null ? -1 : previous;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction.DetailedTypeEnum;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction.TypeEnum;
+import org.threeten.bp.OffsetDateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact column-oriented store of settlement transactions.
+ *
+ * Every attribute is kept in its own primitive array: amounts as {@code long}, dates as epoch
+ * milliseconds, enums as ordinals, UUIDs as two {@code long}s and repeating strings
+ * (currency, country, payout, payment reference) dictionary-encoded as {@code int} ids.
+ * A row takes less than 150 bytes instead of about a kilobyte for a {@link SettlementsTransaction}.
+ *
+ * The store can be fed directly by {@link SettlementsPageFetcher} as a page listener.
+ * It is not thread-safe.
+ */
+public class SettlementsTransactionStore implements SettlementsPageFetcher.PageListener<SettlementsTransaction> {
+    /**
+     * Marker for absent dates.
+     */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * Marker for absent enum and dictionary values.
+     */
+    public static final int NONE = -1;
+
+    private static final TypeEnum[] TYPES = TypeEnum.values();
+    private static final DetailedTypeEnum[] DETAILED_TYPES = DetailedTypeEnum.values();
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Dictionary currencies = new Dictionary();
+    private final Dictionary countries = new Dictionary();
+    private final Dictionary payouts = new Dictionary();
+    private final Dictionary paymentReferences = new Dictionary();
+
+    private int size;
+    private long[] amounts;
+    private long[] saleDates;
+    private long[] captureDates;
+    private int[] types;
+    private int[] detailedTypes;
+    private int[] currencyIds;
+    private int[] countryIds;
+    private int[] payoutIds;
+    private int[] paymentReferenceIds;
+    private long[] orderIds;
+    private long[] captureIds;
+    private long[] refundIds;
+
+    public SettlementsTransactionStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param capacity Initial amount of rows
+     */
+    public SettlementsTransactionStore(final int capacity) {
+        int initial = Math.max(capacity, 16);
+        amounts = new long[initial];
+        saleDates = new long[initial];
+        captureDates = new long[initial];
+        types = new int[initial];
+        detailedTypes = new int[initial];
+        currencyIds = new int[initial];
+        countryIds = new int[initial];
+        payoutIds = new int[initial];
+        paymentReferenceIds = new int[initial];
+        orderIds = new long[initial * 2];
+        captureIds = new long[initial * 2];
+        refundIds = new long[initial * 2];
+    }
+
+    @Override
+    public void onPage(long offset, List<SettlementsTransaction> items) {
+        addAll(items);
+    }
+
+    /**
+     * Appends transactions.
+     *
+     * @param transactions Transactions
+     */
+    public void addAll(final List<SettlementsTransaction> transactions) {
+        ensureCapacity(size + transactions.size());
+        for (SettlementsTransaction transaction : transactions) {
+            add(transaction);
+        }
+    }
+
+    /**
+     * Appends a transaction.
+     *
+     * @param transaction Transaction
+     * @return row index
+     */
+    public int add(final SettlementsTransaction transaction) {
+        ensureCapacity(size + 1);
+        int row = size++;
+
+        amounts[row] = transaction.getAmount() == null ? 0 : transaction.getAmount();
+        saleDates[row] = toMillis(transaction.getSaleDate());
+        captureDates[row] = toMillis(transaction.getCaptureDate());
+        types[row] = transaction.getType() == null ? NONE : transaction.getType().ordinal();
+        detailedTypes[row] = transaction.getDetailedType() == null ? NONE : transaction.getDetailedType().ordinal();
+        currencyIds[row] = currencies.encode(transaction.getCurrencyCode());
+        countryIds[row] = countries.encode(transaction.getPurchaseCountry());
+        payoutIds[row] = payouts.encode(transaction.getPayout());
+        paymentReferenceIds[row] = paymentReferences.encode(transaction.getPaymentReference());
+        putUuid(orderIds, row, transaction.getOrderId());
+        putUuid(captureIds, row, transaction.getCaptureId());
+        putUuid(refundIds, row, transaction.getRefundId());
+
+        return row;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getAmount(final int row) {
+        return amounts[checkRow(row)];
+    }
+
+    /**
+     * Gets the sale date.
+     *
+     * @param row Row index
+     * @return epoch milliseconds or {@link #NO_DATE}
+     */
+    public long getSaleDateMillis(final int row) {
+        return saleDates[checkRow(row)];
+    }
+
+    /**
+     * Gets the capture date.
+     *
+     * @param row Row index
+     * @return epoch milliseconds or {@link #NO_DATE}
+     */
+    public long getCaptureDateMillis(final int row) {
+        return captureDates[checkRow(row)];
+    }
+
+    public TypeEnum getType(final int row) {
+        int ordinal = types[checkRow(row)];
+        return ordinal == NONE ? null : TYPES[ordinal];
+    }
+
+    public DetailedTypeEnum getDetailedType(final int row) {
+        int ordinal = detailedTypes[checkRow(row)];
+        return ordinal == NONE ? null : DETAILED_TYPES[ordinal];
+    }
+
+    public String getCurrencyCode(final int row) {
+        return currencies.decode(currencyIds[checkRow(row)]);
+    }
+
+    public String getPurchaseCountry(final int row) {
+        return countries.decode(countryIds[checkRow(row)]);
+    }
+
+    public String getPayout(final int row) {
+        return payouts.decode(payoutIds[checkRow(row)]);
+    }
+
+    public String getPaymentReference(final int row) {
+        return paymentReferences.decode(paymentReferenceIds[checkRow(row)]);
+    }
+
+    public UUID getOrderId(final int row) {
+        return getUuid(orderIds, checkRow(row));
+    }
+
+    public UUID getCaptureId(final int row) {
+        return getUuid(captureIds, checkRow(row));
+    }
+
+    public UUID getRefundId(final int row) {
+        return getUuid(refundIds, checkRow(row));
+    }
+
+    /**
+     * Sums amounts of all rows.
+     *
+     * @return total amount
+     */
+    public long sum() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += amounts[i];
+        }
+        return total;
+    }
+
+    /**
+     * Sums amounts grouped by transaction type. Rows without a type are skipped.
+     *
+     * @return amount per type
+     */
+    public Map<TypeEnum, Long> sumByType() {
+        long[] sums = new long[TYPES.length];
+        boolean[] present = new boolean[TYPES.length];
+        for (int i = 0; i < size; i++) {
+            int type = types[i];
+            if (type != NONE) {
+                sums[type] += amounts[i];
+                present[type] = true;
+            }
+        }
+
+        Map<TypeEnum, Long> result = new EnumMap<>(TypeEnum.class);
+        for (int i = 0; i < sums.length; i++) {
+            if (present[i]) {
+                result.put(TYPES[i], sums[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sums amounts grouped by currency code. Rows without a currency are skipped.
+     *
+     * @return amount per currency in order of first appearance
+     */
+    public Map<String, Long> sumByCurrency() {
+        return currencies.toMap(groupSum(currencyIds, currencies.size()));
+    }
+
+    /**
+     * Sums amounts grouped by purchase country. Rows without a country are skipped.
+     *
+     * @return amount per country in order of first appearance
+     */
+    public Map<String, Long> sumByPurchaseCountry() {
+        return countries.toMap(groupSum(countryIds, countries.size()));
+    }
+
+    /**
+     * Sums amounts grouped by payout. Rows without a payout are skipped.
+     *
+     * @return amount per payout in order of first appearance
+     */
+    public Map<String, Long> sumByPayout() {
+        return payouts.toMap(groupSum(payoutIds, payouts.size()));
+    }
+
+    private long[] groupSum(final int[] keys, final int cardinality) {
+        long[] sums = new long[cardinality];
+        for (int i = 0; i < size; i++) {
+            int key = keys[i];
+            if (key != NONE) {
+                sums[key] += amounts[i];
+            }
+        }
+        return sums;
+    }
+
+    private int checkRow(final int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return row;
+    }
+
+    private void ensureCapacity(final int required) {
+        if (required <= amounts.length) {
+            return;
+        }
+        int capacity = Math.max(required, amounts.length + (amounts.length >> 1));
+        amounts = Arrays.copyOf(amounts, capacity);
+        saleDates = Arrays.copyOf(saleDates, capacity);
+        captureDates = Arrays.copyOf(captureDates, capacity);
+        types = Arrays.copyOf(types, capacity);
+        detailedTypes = Arrays.copyOf(detailedTypes, capacity);
+        currencyIds = Arrays.copyOf(currencyIds, capacity);
+        countryIds = Arrays.copyOf(countryIds, capacity);
+        payoutIds = Arrays.copyOf(payoutIds, capacity);
+        paymentReferenceIds = Arrays.copyOf(paymentReferenceIds, capacity);
+        orderIds = Arrays.copyOf(orderIds, capacity * 2);
+        captureIds = Arrays.copyOf(captureIds, capacity * 2);
+        refundIds = Arrays.copyOf(refundIds, capacity * 2);
+    }
+
+    private static long toMillis(final OffsetDateTime date) {
+        return date == null ? NO_DATE : date.toInstant().toEpochMilli();
+    }
+
+    private static void putUuid(final long[] column, final int row, final UUID uuid) {
+        // 0/0 is the nil UUID and is never issued by the API, so it marks absent values
+        column[row * 2] = uuid == null ? 0 : uuid.getMostSignificantBits();
+        column[row * 2 + 1] = uuid == null ? 0 : uuid.getLeastSignificantBits();
+    }
+
+    private static UUID getUuid(final long[] column, final int row) {
+        long msb = column[row * 2];
+        long lsb = column[row * 2 + 1];
+        return msb == 0 && lsb == 0 ? null : new UUID(msb, lsb);
+    }
+
+    /**
+     * Maps repeating strings to dense int ids.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int encode(final String value) {
+            if (value == null) {
+                return NONE;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        String decode(final int id) {
+            return id == NONE ? null : values.get(id);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        Map<String, Long> toMap(final long[] sums) {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (int i = 0; i < sums.length; i++) {
+                result.put(values.get(i), sums[i]);
+            }
+            return result;
+        }
+    }
+}
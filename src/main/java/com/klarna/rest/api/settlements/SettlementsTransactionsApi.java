@@ -17,6 +17,7 @@
 package com.klarna.rest.api.settlements;
 
 import com.klarna.rest.api.BaseApi;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
 import com.klarna.rest.api.settlements.model.SettlementsTransactionCollection;
 import com.klarna.rest.http_transport.HttpTransport;
 import com.klarna.rest.model.ApiException;
@@ -25,6 +26,7 @@ import com.klarna.rest.model.ApiResponse;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -79,4 +81,24 @@ public class SettlementsTransactionsApi extends BaseApi {
     public SettlementsTransactionCollection getTransactions() throws ApiException, IOException {
         return this.getTransactions(null);
     }
+
+    /**
+     * Returns all transactions, fetching the pages in parallel once the total is known.
+     *
+     * @see SettlementsPageFetcher
+     *
+     * @param urlParams extra URL params
+     * @param concurrency maximum amount of page requests in flight
+     * @param ordered true to keep the server order, false to merge pages as they arrive
+     * @return all transactions
+     * @throws ApiException if API server returned non-20x HTTP CODE and response contains
+     *                      a <a href="https://developers.klarna.com/api/#errors">Error</a>
+     * @throws IOException if an error occurred when connecting to the server or when parsing a response.
+     */
+    public List<SettlementsTransaction> getAllTransactions(final Map<String, String> urlParams,
+                                                           final int concurrency,
+                                                           final boolean ordered)
+        throws ApiException, IOException {
+        return new SettlementsPageFetcher(concurrency, ordered).fetchTransactions(this, urlParams);
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from a UUID, stored as two {@code long}s, to a non-negative {@code int}.
+ *
+ * Uses linear probing with backward-shift deletion, so removals leave no tombstones
+ * and no key or value is ever boxed.
+ */
+final class UuidIndex {
+    /**
+     * Value returned for absent keys.
+     */
+    static final int MISSING = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /**
+     * Receives index entries.
+     */
+    interface Visitor {
+        void visit(long msb, long lsb, int value);
+    }
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    UuidIndex(final int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(final long msb, final long lsb) {
+        int slot = find(msb, lsb);
+        return slot < 0 ? MISSING : values[slot];
+    }
+
+    /**
+     * Associates a value with the key.
+     *
+     * @return previous value or {@link #MISSING}
+     */
+    int put(final long msb, final long lsb, final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value must not be negative: " + value);
+        }
+        if (size >= threshold) {
+            allocateAndRehash(values.length * 2);
+        }
+
+        int slot = slot(msb, lsb);
+        while (values[slot] != MISSING) {
+            if (keys[slot * 2] == msb && keys[slot * 2 + 1] == lsb) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot * 2] = msb;
+        keys[slot * 2 + 1] = lsb;
+        values[slot] = value;
+        size++;
+        return MISSING;
+    }
+
+    /**
+     * Removes the key.
+     *
+     * @return removed value or {@link #MISSING}
+     */
+    int remove(final long msb, final long lsb) {
+        int slot = find(msb, lsb);
+        if (slot < 0) {
+            return MISSING;
+        }
+        int removed = values[slot];
+
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (values[next] == MISSING) {
+                break;
+            }
+            int home = slot(keys[next * 2], keys[next * 2 + 1]);
+            boolean movable = hole <= next
+                    ? home <= hole || home > next
+                    : home <= hole && home > next;
+            if (movable) {
+                keys[hole * 2] = keys[next * 2];
+                keys[hole * 2 + 1] = keys[next * 2 + 1];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        values[hole] = MISSING;
+        size--;
+        return removed;
+    }
+
+    void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+
+    void forEach(final Visitor visitor) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != MISSING) {
+                visitor.visit(keys[slot * 2], keys[slot * 2 + 1], values[slot]);
+            }
+        }
+    }
+
+    private int find(final long msb, final long lsb) {
+        int slot = slot(msb, lsb);
+        while (values[slot] != MISSING) {
+            if (keys[slot * 2] == msb && keys[slot * 2 + 1] == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(final long msb, final long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity * 2];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+        size = 0;
+    }
+
+    private void allocateAndRehash(final int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != MISSING) {
+                put(oldKeys[slot * 2], oldKeys[slot * 2 + 1], oldValues[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP transport decorator serving immutable resources from a {@link DiskCache}.
+ *
+ * Successful GET responses for paths accepted by the {@link Policy} are stored in the cache,
+ * and subsequent requests for the same path are answered without a network call.
+ * All other requests are passed through to the underlying transport.
+ *
+ * <pre>
+ * HttpTransport transport = new CachingTransport(
+ *         new HttpUrlConnectionTransport(merchantId, sharedSecret, HttpTransport.EU_BASE_URL),
+ *         new DiskCache(new File("settlements-cache"), 64 * 1024 * 1024, 1024L * 1024 * 1024),
+ *         CachingTransport.SETTLEMENTS);
+ * SettlementsPayoutsApi api = new Client(transport).newSettlementsPayoutsApi();
+ * </pre>
+ */
+public class CachingTransport implements HttpTransport {
+    /**
+     * Decides which request paths refer to immutable resources.
+     */
+    public interface Policy {
+        boolean isCacheable(String path);
+    }
+
+    /**
+     * Issued Settlements resources: a payout by payment reference, and the transactions and
+     * reports of a given payment reference.
+     */
+    public static final Policy SETTLEMENTS = new Policy() {
+        private final Pattern payout = Pattern.compile("^/settlements/v1/payouts/(?!summary)[^/?]+$");
+        private final Pattern byReference = Pattern.compile(
+                "^/settlements/v1/(transactions|reports/(payout|payout-with-transactions))\\?(.*&)?payment_reference=[^&]+.*$");
+
+        @Override
+        public boolean isCacheable(String path) {
+            return payout.matcher(path).matches() || byReference.matcher(path).matches();
+        }
+    };
+
+    private final HttpTransport transport;
+    private final DiskCache cache;
+    private final Policy policy;
+
+    /**
+     * Creates a caching transport.
+     *
+     * @param transport Underlying transport
+     * @param cache Cache storage
+     * @param policy Cacheable paths policy
+     */
+    public CachingTransport(final HttpTransport transport, final DiskCache cache, final Policy policy) {
+        this.transport = transport;
+        this.cache = cache;
+        this.policy = policy;
+    }
+
+    public DiskCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public ApiResponse get(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        if (!policy.isCacheable(path)) {
+            return transport.get(path, headers);
+        }
+
+        DiskCache.Entry entry = cache.get(path);
+        if (entry != null) {
+            ApiResponse response = new ApiResponse().setStatus(200).setBody(entry.getBody());
+            if (entry.getContentType() != null) {
+                response.setHeader("Content-Type", Collections.singletonList(entry.getContentType()));
+            }
+            return response;
+        }
+
+        ApiResponse response = transport.get(path, headers);
+        if (response.getStatus() == 200 && response.getBody() != null) {
+            List<String> contentType = response.getHeader("Content-Type");
+            cache.put(path, contentType == null || contentType.isEmpty() ? null : contentType.get(0), response.getBody());
+        }
+        return response;
+    }
+
+    @Override
+    public ApiResponse post(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return transport.post(path, data, headers);
+    }
+
+    @Override
+    public ApiResponse put(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return transport.put(path, data, headers);
+    }
+
+    @Override
+    public ApiResponse patch(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return transport.patch(path, data, headers);
+    }
+
+    @Override
+    @Deprecated
+    public ApiResponse delete(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        return transport.delete(path, headers);
+    }
+
+    @Override
+    public ApiResponse delete(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return transport.delete(path, data, headers);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable key-value cache stored in memory-mapped, append-only segment files.
+ *
+ * Every entry is written to the current segment together with a CRC32 checksum. When the
+ * segment is full a new one is started, and when the total size exceeds the limit the oldest
+ * segment is deleted together with all of its entries. On start-up the segments are scanned to
+ * rebuild the in-memory key index; a torn or corrupted tail of a segment is ignored.
+ */
+public class DiskCache implements Closeable {
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(DiskCache.class);
+
+    private static final int MAGIC = 0x4B434F31;
+    private static final int HEADER_SIZE = 16;
+    private static final int TRAILER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    /**
+     * Cached value.
+     */
+    public static final class Entry {
+        private final String contentType;
+        private final byte[] body;
+
+        Entry(final String contentType, final byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Map<String, Location> index = new HashMap<>();
+    private long nextSegmentId;
+
+    /**
+     * Opens or creates a cache.
+     *
+     * @param directory Directory holding the segment files
+     * @param segmentSize Size of a single segment file in bytes
+     * @param maxSize Maximum total size of all segments in bytes
+     * @throws IOException if the directory or the segments cannot be accessed
+     */
+    public DiskCache(final File directory, final int segmentSize, final long maxSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE + TRAILER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        if (maxSize < segmentSize) {
+            throw new IllegalArgumentException("Maximum size must hold at least one segment");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file);
+            segments.addLast(segment);
+            segment.scan();
+            nextSegmentId = id + 1;
+        }
+        evict();
+    }
+
+    /**
+     * Gets a cached entry.
+     *
+     * @param key Cache key
+     * @return entry or null on a miss or a checksum failure
+     */
+    public synchronized Entry get(final String key) {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        Entry entry = location.segment.read(location.offset, key);
+        if (entry == null) {
+            log.warn("Checksum mismatch for cached entry " + key + ", dropping it");
+            index.remove(key);
+        }
+        return entry;
+    }
+
+    /**
+     * Stores an entry. Entries larger than a segment are not stored.
+     *
+     * @param key Cache key
+     * @param contentType Content type
+     * @param body Body
+     * @return true if the entry was stored
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized boolean put(final String key, final String contentType, final byte[] body) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] typeBytes = (contentType == null ? "" : contentType).getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_SIZE + keyBytes.length + typeBytes.length + body.length + TRAILER_SIZE;
+        if (length > segmentSize) {
+            return false;
+        }
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.position + length > segment.buffer.capacity()) {
+            long id = nextSegmentId++;
+            segment = new Segment(id, new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+            segments.addLast(segment);
+            evict();
+        }
+
+        int offset = segment.append(keyBytes, typeBytes, body);
+        index.put(key, new Location(segment, offset));
+        return true;
+    }
+
+    /**
+     * Gets the amount of cached entries.
+     *
+     * @return entry count
+     */
+    public synchronized int count() {
+        return index.size();
+    }
+
+    /**
+     * Gets the disk space reserved by the segments.
+     *
+     * @return size in bytes
+     */
+    public synchronized long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.buffer.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Flushes the mapped segments to disk.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    private void evict() {
+        while (segments.size() > 1 && size() > maxSize) {
+            Segment oldest = segments.removeFirst();
+            Iterator<Location> it = index.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().segment == oldest) {
+                    it.remove();
+                }
+            }
+            if (!oldest.file.delete()) {
+                log.warn("Cannot delete evicted cache segment " + oldest.file);
+            }
+        }
+    }
+
+    private static long checksum(final ByteBuffer buffer, final int offset, final int length) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(length, 8192)];
+        ByteBuffer data = buffer.duplicate();
+        data.position(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            int size = Math.min(remaining, chunk.length);
+            data.get(chunk, 0, size);
+            crc.update(chunk, 0, size);
+            remaining -= size;
+        }
+        return crc.getValue();
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final int offset;
+
+        Location(final Segment segment, final int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private final class Segment {
+        private final long id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int position;
+
+        Segment(final long id, final File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                long size = Math.max(raf.length(), segmentSize);
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        void scan() {
+            position = 0;
+            while (position + HEADER_SIZE + TRAILER_SIZE <= buffer.capacity()) {
+                if (buffer.getInt(position) != MAGIC) {
+                    break;
+                }
+                int keyLength = buffer.getInt(position + 4);
+                int typeLength = buffer.getInt(position + 8);
+                int bodyLength = buffer.getInt(position + 12);
+                long dataLength = (long) keyLength + typeLength + bodyLength;
+                if (keyLength < 0 || typeLength < 0 || bodyLength < 0
+                        || position + HEADER_SIZE + dataLength + TRAILER_SIZE > buffer.capacity()) {
+                    break;
+                }
+                int length = HEADER_SIZE + (int) dataLength;
+                if (checksum(buffer, position, length) != buffer.getLong(position + length)) {
+                    log.warn("Corrupted cache entry in " + file + " at " + position + ", ignoring the rest");
+                    break;
+                }
+
+                byte[] key = new byte[keyLength];
+                ByteBuffer data = buffer.duplicate();
+                data.position(position + HEADER_SIZE);
+                data.get(key);
+                index.put(new String(key, StandardCharsets.UTF_8), new Location(this, position));
+                position += length + TRAILER_SIZE;
+            }
+        }
+
+        int append(final byte[] key, final byte[] type, final byte[] body) {
+            int offset = position;
+            ByteBuffer data = buffer.duplicate();
+            data.position(offset);
+            data.putInt(MAGIC).putInt(key.length).putInt(type.length).putInt(body.length);
+            data.put(key).put(type).put(body);
+            int length = HEADER_SIZE + key.length + type.length + body.length;
+            data.putLong(checksum(buffer, offset, length));
+            position = offset + length + TRAILER_SIZE;
+            return offset;
+        }
+
+        Entry read(final int offset, final String expectedKey) {
+            int keyLength = buffer.getInt(offset + 4);
+            int typeLength = buffer.getInt(offset + 8);
+            int bodyLength = buffer.getInt(offset + 12);
+            long dataLength = (long) keyLength + typeLength + bodyLength;
+            if (keyLength < 0 || typeLength < 0 || bodyLength < 0
+                    || offset + HEADER_SIZE + dataLength + TRAILER_SIZE > buffer.capacity()) {
+                return null;
+            }
+            int length = HEADER_SIZE + (int) dataLength;
+            if (buffer.getInt(offset) != MAGIC || checksum(buffer, offset, length) != buffer.getLong(offset + length)) {
+                return null;
+            }
+
+            ByteBuffer data = buffer.duplicate();
+            data.position(offset + HEADER_SIZE);
+            byte[] key = new byte[keyLength];
+            byte[] type = new byte[typeLength];
+            byte[] body = new byte[bodyLength];
+            data.get(key).get(type).get(body);
+            if (!expectedKey.equals(new String(key, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            return new Entry(typeLength == 0 ? null : new String(type, StandardCharsets.UTF_8), body);
+        }
+
+        @Override
+        public String toString() {
+            return "Segment " + id;
+        }
+    }
+}
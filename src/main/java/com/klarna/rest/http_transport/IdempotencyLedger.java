@@ -0,0 +1,350 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import com.klarna.rest.model.ApiResponse;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded store of responses to requests sent with an idempotency key.
+ *
+ * Every entry carries a fingerprint of its request, so a key reused for a different request
+ * is detected instead of answered with the response of the first one. Entries are kept in
+ * memory in least-recently-used order and expire after a time to live, 24 hours unless set
+ * otherwise. A ledger opened with a log file
+ * additionally appends every entry to it and restores the entries on open; the log is
+ * rewritten with the live entries once it holds twice the capacity. A truncated record at
+ * the end of the log, left by a crash, is discarded.
+ */
+public class IdempotencyLedger implements Closeable {
+    private static final int MAGIC = 0x4b494433;
+
+    /**
+     * Default time to live of an entry in milliseconds.
+     */
+    public static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis(24);
+
+    private final int capacity;
+    private final long ttl;
+    private final File log;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+    private DataOutputStream output;
+    private int logged;
+
+    /**
+     * Creates an in-memory ledger.
+     *
+     * @param capacity Maximum amount of entries
+     */
+    public IdempotencyLedger(final int capacity) {
+        this(capacity, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates an in-memory ledger.
+     *
+     * @param capacity Maximum amount of entries
+     * @param ttl Time to live of an entry in milliseconds
+     */
+    public IdempotencyLedger(final int capacity, final long ttl) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (ttl < 1) {
+            throw new IllegalArgumentException("Time to live must be positive: " + ttl);
+        }
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.log = null;
+    }
+
+    /**
+     * Opens a file-backed ledger.
+     *
+     * @param capacity Maximum amount of entries
+     * @param log Log file, created if missing
+     * @throws IOException if the log cannot be read or opened for writing
+     */
+    public IdempotencyLedger(final int capacity, final File log) throws IOException {
+        this(capacity, DEFAULT_TTL, log);
+    }
+
+    /**
+     * Opens a file-backed ledger.
+     *
+     * @param capacity Maximum amount of entries
+     * @param ttl Time to live of an entry in milliseconds
+     * @param log Log file, created if missing
+     * @throws IOException if the log cannot be read or opened for writing
+     */
+    public IdempotencyLedger(final int capacity, final long ttl, final File log) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (ttl < 1) {
+            throw new IllegalArgumentException("Time to live must be positive: " + ttl);
+        }
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.log = log;
+
+        if (log.exists()) {
+            restore();
+        }
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(log, true)));
+    }
+
+    /**
+     * Computes the fingerprint of a request.
+     *
+     * @param method HTTP method
+     * @param path URL path
+     * @param body Payload or null
+     * @return SHA-256 hash of the request
+     */
+    public static byte[] fingerprint(final String method, final String path, final byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((method + ' ' + path + '\n').getBytes(StandardCharsets.UTF_8));
+            if (body != null) {
+                digest.update(body);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the stored response.
+     *
+     * @param key Idempotency key
+     * @param fingerprint Fingerprint of the request, see {@link #fingerprint(String, String, byte[])}
+     * @return response or null if the key is unknown or expired
+     * @throws IllegalArgumentException if the key was stored for a different request
+     */
+    public synchronized ApiResponse get(final String key, final byte[] fingerprint) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key);
+            return null;
+        }
+        if (!Arrays.equals(entry.fingerprint, fingerprint)) {
+            throw new IllegalArgumentException("Idempotency key " + key + " was used for a different request");
+        }
+        return entry.response;
+    }
+
+    /**
+     * Stores a response.
+     *
+     * @param key Idempotency key
+     * @param fingerprint Fingerprint of the request, see {@link #fingerprint(String, String, byte[])}
+     * @param response Response
+     * @throws IOException if the entry cannot be written to the log
+     */
+    public synchronized void put(final String key, final byte[] fingerprint, final ApiResponse response)
+            throws IOException {
+        Entry entry = new Entry(fingerprint, response, System.currentTimeMillis() + ttl);
+        entries.put(key, entry);
+        if (output == null) {
+            return;
+        }
+
+        if (logged >= capacity * 2) {
+            compact();
+        } else {
+            write(output, key, entry);
+            output.flush();
+            logged++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    private void restore() throws IOException {
+        byte[] data = Files.readAllBytes(log.toPath());
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        long valid = 0;
+        long now = System.currentTimeMillis();
+        try {
+            while (input.available() > 0) {
+                if (input.readInt() != MAGIC) {
+                    break;
+                }
+                String key = input.readUTF();
+                long expires = input.readLong();
+                byte[] fingerprint = new byte[input.readShort()];
+                input.readFully(fingerprint);
+                ApiResponse response = new ApiResponse().setStatus(input.readInt());
+                int headers = input.readShort();
+                for (int i = 0; i < headers; i++) {
+                    String name = input.readUTF();
+                    int count = input.readShort();
+                    List<String> values = new ArrayList<>(count);
+                    for (int j = 0; j < count; j++) {
+                        values.add(input.readUTF());
+                    }
+                    response.setHeader(name, values);
+                }
+                int length = input.readInt();
+                if (length >= 0) {
+                    byte[] body = new byte[length];
+                    input.readFully(body);
+                    response.setBody(body);
+                }
+
+                if (expires > now) {
+                    entries.put(key, new Entry(fingerprint, response, expires));
+                }
+                logged++;
+                valid = data.length - input.available();
+            }
+        } catch (EOFException e) {
+            // Incomplete record at the end of the log
+        }
+
+        if (valid < data.length) {
+            try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+                file.setLength(valid);
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        output.close();
+
+        File tmp = new File(log.getPath() + ".tmp");
+        try (FileOutputStream os = new FileOutputStream(tmp)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(os));
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Entry> entry = it.next();
+                if (entry.getValue().isExpired(now)) {
+                    it.remove();
+                } else {
+                    write(data, entry.getKey(), entry.getValue());
+                }
+            }
+            data.flush();
+            os.getFD().sync();
+        }
+        Files.move(tmp.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logged = entries.size();
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(log, true)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write(final DataOutputStream output, final String key, final Entry entry)
+            throws IOException {
+        final ApiResponse response = entry.response;
+        output.writeInt(MAGIC);
+        output.writeUTF(key);
+        output.writeLong(entry.expires);
+        output.writeShort(entry.fingerprint.length);
+        output.write(entry.fingerprint);
+        output.writeInt(response.getStatus());
+
+        Map<String, List<String>> headers = response.getHeaders() == null
+                ? Collections.<String, List<String>>emptyMap()
+                : response.getHeaders();
+        int count = 0;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() != null) {
+                count++;
+            }
+        }
+        output.writeShort(count);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() == null) {
+                continue;
+            }
+            output.writeUTF(header.getKey());
+            output.writeShort(header.getValue().size());
+            for (String value : header.getValue()) {
+                output.writeUTF(value);
+            }
+        }
+
+        byte[] body = response.getBody();
+        if (body == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(body.length);
+            output.write(body);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] fingerprint;
+        private final ApiResponse response;
+        private final long expires;
+
+        Entry(final byte[] fingerprint, final ApiResponse response, final long expires) {
+            this.fingerprint = fingerprint;
+            this.response = response;
+            this.expires = expires;
+        }
+
+        boolean isExpired(final long now) {
+            return expires <= now;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * HTTP transport decorator making mutating requests safe to repeat.
+ *
+ * Every POST, PUT, PATCH and DELETE request is sent with a {@value #IDEMPOTENCY_KEY_HEADER}
+ * header. A key set by the caller is kept, its successful responses are recorded in an
+ * {@link IdempotencyLedger}, and a retry with the same key and request is answered from the
+ * ledger without a network call.
+ *
+ * APIs without a key parameter can be made safe to retry with an {@link #operation(String)}
+ * scope: within it, the key is derived from the operation ID and the request, so repeating
+ * the call in a scope with the same operation ID sends the same key. Requests outside of a
+ * scope get a random key, so two identical requests, e.g. two equal partial captures of one
+ * order, are always both sent; such requests are not replayed.
+ *
+ * <pre>
+ * HttpTransport transport = new IdempotentTransport(
+ *         new HttpUrlConnectionTransport(merchantId, sharedSecret, HttpTransport.EU_BASE_URL),
+ *         new IdempotencyLedger(100000, new File("idempotency.log")));
+ * try (IdempotentTransport.Operation operation = IdempotentTransport.operation("checkout-" + cartId)) {
+ *     new Client(transport).newPaymentsOrdersApi().create(authorizationToken, order);
+ * }
+ * </pre>
+ */
+public class IdempotentTransport implements HttpTransport {
+    /**
+     * Idempotency key header name.
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Klarna-Idempotency-Key";
+
+    private static final ThreadLocal<String> OPERATION = new ThreadLocal<>();
+
+    /**
+     * Scope of a logical operation on the current thread, see {@link #operation(String)}.
+     */
+    public static final class Operation implements Closeable {
+        private final String previous;
+
+        private Operation(final String previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Ends the scope.
+         */
+        @Override
+        public void close() {
+            if (previous == null) {
+                OPERATION.remove();
+            } else {
+                OPERATION.set(previous);
+            }
+        }
+    }
+
+    private final HttpTransport transport;
+    private final IdempotencyLedger ledger;
+
+    /**
+     * Creates an idempotent transport.
+     *
+     * @param transport Underlying transport
+     * @param ledger Ledger of successful responses
+     */
+    public IdempotentTransport(final HttpTransport transport, final IdempotencyLedger ledger) {
+        this.transport = transport;
+        this.ledger = ledger;
+    }
+
+    public IdempotencyLedger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Starts the scope of a logical operation on the current thread.
+     *
+     * Requests sent in the scope without an idempotency key get one derived from the operation
+     * ID, method, path and body. The operation ID has to be unique per logical operation and
+     * stable across its retries, e.g. an ID of the cart or of a job step.
+     *
+     * @param operationId Operation ID
+     * @return scope, to be closed when the operation is done
+     */
+    public static Operation operation(final String operationId) {
+        if (operationId == null) {
+            throw new IllegalArgumentException("Operation ID must not be null");
+        }
+        Operation operation = new Operation(OPERATION.get());
+        OPERATION.set(operationId);
+        return operation;
+    }
+
+    @Override
+    public ApiResponse get(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        return transport.get(path, headers);
+    }
+
+    @Override
+    public ApiResponse post(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return send("POST", path, data, headers, new Request() {
+            @Override
+            public ApiResponse send(Map<String, String> keyed) throws ApiException, IOException {
+                return transport.post(path, data, keyed);
+            }
+        });
+    }
+
+    @Override
+    public ApiResponse put(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return send("PUT", path, data, headers, new Request() {
+            @Override
+            public ApiResponse send(Map<String, String> keyed) throws ApiException, IOException {
+                return transport.put(path, data, keyed);
+            }
+        });
+    }
+
+    @Override
+    public ApiResponse patch(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return send("PATCH", path, data, headers, new Request() {
+            @Override
+            public ApiResponse send(Map<String, String> keyed) throws ApiException, IOException {
+                return transport.patch(path, data, keyed);
+            }
+        });
+    }
+
+    @Override
+    @Deprecated
+    public ApiResponse delete(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        return send("DELETE", path, null, headers, new Request() {
+            @Override
+            public ApiResponse send(Map<String, String> keyed) throws ApiException, IOException {
+                return transport.delete(path, keyed);
+            }
+        });
+    }
+
+    @Override
+    public ApiResponse delete(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return send("DELETE", path, data, headers, new Request() {
+            @Override
+            public ApiResponse send(Map<String, String> keyed) throws ApiException, IOException {
+                return transport.delete(path, data, keyed);
+            }
+        });
+    }
+
+    private ApiResponse send(final String method, final String path, final byte[] data,
+                             final Map<String, String> headers, final Request request)
+            throws ApiException, IOException {
+        final Map<String, String> keyed = headers == null
+                ? new HashMap<String, String>()
+                : new HashMap<>(headers);
+        final byte[] fingerprint = IdempotencyLedger.fingerprint(method, path, data);
+        String key = keyed.get(IDEMPOTENCY_KEY_HEADER);
+        if (key == null) {
+            final String operationId = OPERATION.get();
+            if (operationId == null) {
+                keyed.put(IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString());
+                return request.send(keyed);
+            }
+            byte[] operation = operationId.getBytes(StandardCharsets.UTF_8);
+            byte[] seed = Arrays.copyOf(operation, operation.length + fingerprint.length);
+            System.arraycopy(fingerprint, 0, seed, operation.length, fingerprint.length);
+            key = UUID.nameUUIDFromBytes(seed).toString();
+            keyed.put(IDEMPOTENCY_KEY_HEADER, key);
+        }
+
+        ApiResponse recorded = ledger.get(key, fingerprint);
+        if (recorded != null) {
+            return recorded;
+        }
+
+        ApiResponse response = request.send(keyed);
+        if (response.isSuccessful()) {
+            ledger.put(key, fingerprint, response);
+        }
+        return response;
+    }
+
+    private interface Request {
+        ApiResponse send(Map<String, String> headers) throws ApiException, IOException;
+    }
+}
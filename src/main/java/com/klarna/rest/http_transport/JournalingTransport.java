@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * HTTP transport decorator recording every mutating request in a {@link RequestJournal}.
+ *
+ * A request is journaled together with its idempotency key, a random one unless the caller set
+ * it, before it is sent, and its outcome is journaled once the server answered, also with an
+ * error. Requests whose outcome is unknown after a crash or a connection failure are found with
+ * {@link RequestJournal#getIncomplete()} and can be re-sent with
+ * {@link #replay(RequestJournal.Entry)}; the stored idempotency key makes the repetition safe.
+ *
+ * <pre>
+ * RequestJournal journal = new RequestJournal(new File("journal"), 16 * 1024 * 1024);
+ * JournalingTransport transport = new JournalingTransport(
+ *         new HttpUrlConnectionTransport(merchantId, sharedSecret, HttpTransport.EU_BASE_URL),
+ *         journal);
+ * for (RequestJournal.Entry entry : journal.getIncomplete()) {
+ *     transport.replay(entry);
+ * }
+ * </pre>
+ */
+public class JournalingTransport implements HttpTransport {
+    private final HttpTransport transport;
+    private final RequestJournal journal;
+
+    /**
+     * Creates a journaling transport.
+     *
+     * @param transport Underlying transport
+     * @param journal Request journal
+     */
+    public JournalingTransport(final HttpTransport transport, final RequestJournal journal) {
+        this.transport = transport;
+        this.journal = journal;
+    }
+
+    public RequestJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Re-sends an incomplete request and records its outcome.
+     *
+     * @param entry Incomplete journal entry
+     * @return server response
+     * @throws ApiException if the underlying transport failed with an API error
+     * @throws IOException if an error occurred when connecting to the server
+     */
+    public ApiResponse replay(final RequestJournal.Entry entry) throws ApiException, IOException {
+        return sendAndComplete(entry.getId(), entry.getMethod(), entry.getPath(), entry.getBody(), entry.getHeaders());
+    }
+
+    @Override
+    public ApiResponse get(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        return transport.get(path, headers);
+    }
+
+    @Override
+    public ApiResponse post(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return journaled("POST", path, data, headers);
+    }
+
+    @Override
+    public ApiResponse put(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return journaled("PUT", path, data, headers);
+    }
+
+    @Override
+    public ApiResponse patch(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return journaled("PATCH", path, data, headers);
+    }
+
+    @Override
+    @Deprecated
+    public ApiResponse delete(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        return journaled("DELETE", path, null, headers);
+    }
+
+    @Override
+    public ApiResponse delete(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        return journaled("DELETE", path, data, headers);
+    }
+
+    private ApiResponse journaled(final String method, final String path, final byte[] data,
+                                  final Map<String, String> headers)
+            throws ApiException, IOException {
+        final Map<String, String> keyed = headers == null
+                ? new HashMap<String, String>()
+                : new HashMap<>(headers);
+        if (!keyed.containsKey(IdempotentTransport.IDEMPOTENCY_KEY_HEADER)) {
+            keyed.put(IdempotentTransport.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString());
+        }
+
+        long id = journal.begin(method, path, keyed, data);
+        return sendAndComplete(id, method, path, data, keyed);
+    }
+
+    private ApiResponse sendAndComplete(final long id, final String method, final String path, final byte[] data,
+                                        final Map<String, String> headers)
+            throws ApiException, IOException {
+        final ApiResponse response;
+        try {
+            response = send(method, path, data, headers);
+        } catch (ApiException e) {
+            // The server answered, only connection failures leave the outcome unknown
+            journal.complete(id, e.getHttpStatus());
+            throw e;
+        }
+        journal.complete(id, response.getStatus());
+        return response;
+    }
+
+    private ApiResponse send(final String method, final String path, final byte[] data,
+                             final Map<String, String> headers)
+            throws ApiException, IOException {
+        switch (method) {
+            case "POST":
+                return transport.post(path, data, headers);
+            case "PUT":
+                return transport.put(path, data, headers);
+            case "PATCH":
+                return transport.patch(path, data, headers);
+            case "DELETE":
+                return transport.delete(path, data, headers);
+            default:
+                throw new IOException("Unknown request method " + method);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded two-tier cache of serialized orders.
+ *
+ * The first tier keeps the most recently used entries on the heap. Entries evicted from it
+ * move to an optional off-heap tier, a direct buffer used as a ring: new entries are written
+ * after the newest one and overwrite the oldest ones. An entry read from the off-heap tier
+ * is promoted back to the heap.
+ */
+public class OrderCache {
+    private final int maxEntries;
+    private final ByteBuffer offHeap;
+    private final LinkedHashMap<String, byte[]> heap = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
+            if (size() <= maxEntries) {
+                return false;
+            }
+            demote(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<String, Slot> slots = new HashMap<>();
+    private final Deque<Slot> ring = new ArrayDeque<>();
+    private int position;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries Maximum amount of entries on the heap
+     * @param offHeapSize Size of the off-heap tier in bytes, 0 to disable it
+     */
+    public OrderCache(final int maxEntries, final int offHeapSize) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.offHeap = offHeapSize > 0 ? ByteBuffer.allocateDirect(offHeapSize) : null;
+    }
+
+    /**
+     * Gets a cached order.
+     *
+     * @param orderId Order id
+     * @return serialized order or null on a miss
+     */
+    public synchronized byte[] get(final String orderId) {
+        byte[] data = heap.get(orderId);
+        if (data == null) {
+            Slot slot = slots.remove(orderId);
+            if (slot != null) {
+                ring.remove(slot);
+                data = new byte[slot.length];
+                ByteBuffer source = offHeap.duplicate();
+                source.position(slot.offset);
+                source.get(data);
+                heap.put(orderId, data);
+            }
+        }
+
+        if (data == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return data;
+    }
+
+    /**
+     * Stores an order.
+     *
+     * @param orderId Order id
+     * @param data Serialized order
+     */
+    public synchronized void put(final String orderId, final byte[] data) {
+        removeSlot(orderId);
+        heap.put(orderId, data);
+    }
+
+    /**
+     * Drops an order from both tiers.
+     *
+     * @param orderId Order id
+     */
+    public synchronized void invalidate(final String orderId) {
+        heap.remove(orderId);
+        removeSlot(orderId);
+    }
+
+    /**
+     * Drops all orders.
+     */
+    public synchronized void clear() {
+        heap.clear();
+        slots.clear();
+        ring.clear();
+        position = 0;
+    }
+
+    /**
+     * Gets the amount of cached orders.
+     *
+     * @return entries in both tiers
+     */
+    public synchronized int size() {
+        return heap.size() + slots.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void demote(final String orderId, final byte[] data) {
+        if (offHeap == null || data.length > offHeap.capacity()) {
+            return;
+        }
+        if (position + data.length > offHeap.capacity()) {
+            while (!ring.isEmpty() && ring.peekFirst().offset >= position) {
+                slots.remove(ring.removeFirst().orderId);
+            }
+            position = 0;
+        }
+
+        int end = position + data.length;
+        while (!ring.isEmpty()) {
+            Slot oldest = ring.peekFirst();
+            if (oldest.offset >= end || oldest.offset + oldest.length <= position) {
+                break;
+            }
+            ring.removeFirst();
+            slots.remove(oldest.orderId);
+        }
+
+        ByteBuffer target = offHeap.duplicate();
+        target.position(position);
+        target.put(data);
+        Slot slot = new Slot(orderId, position, data.length);
+        ring.addLast(slot);
+        slots.put(orderId, slot);
+        position = end;
+    }
+
+    private void removeSlot(final String orderId) {
+        Slot slot = slots.remove(orderId);
+        if (slot != null) {
+            ring.remove(slot);
+        }
+    }
+
+    private static final class Slot {
+        private final String orderId;
+        private final int offset;
+        private final int length;
+
+        Slot(final String orderId, final int offset, final int length) {
+            this.orderId = orderId;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
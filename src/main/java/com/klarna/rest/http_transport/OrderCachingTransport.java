@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP transport decorator caching Order Management orders in an {@link OrderCache}.
+ *
+ * Successful responses to {@code GET /ordermanagement/v1/orders/{order_id}} are cached.
+ * Any other request to the order or one of its sub-resources, such as a capture, a refund,
+ * a cancellation or an update, invalidates the cached order before and after it is sent.
+ * Responses of reads that were in flight during an invalidation are not cached.
+ *
+ * <pre>
+ * HttpTransport transport = new OrderCachingTransport(
+ *         new HttpUrlConnectionTransport(merchantId, sharedSecret, HttpTransport.EU_BASE_URL),
+ *         new OrderCache(1000, 16 * 1024 * 1024));
+ * Client client = new Client(transport);
+ * </pre>
+ */
+public class OrderCachingTransport implements HttpTransport {
+    private static final Pattern ORDER = Pattern.compile("^/ordermanagement/v1/orders/([^/?]+)(/.*)?$");
+
+    private final HttpTransport transport;
+    private final OrderCache cache;
+    private final Object lock = new Object();
+    private long generation;
+
+    /**
+     * Creates a caching transport.
+     *
+     * @param transport Underlying transport
+     * @param cache Order cache
+     */
+    public OrderCachingTransport(final HttpTransport transport, final OrderCache cache) {
+        this.transport = transport;
+        this.cache = cache;
+    }
+
+    public OrderCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public ApiResponse get(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        Matcher matcher = ORDER.matcher(path);
+        if (!matcher.matches() || matcher.group(2) != null) {
+            return transport.get(path, headers);
+        }
+
+        String orderId = matcher.group(1);
+        byte[] cached = cache.get(orderId);
+        if (cached != null) {
+            return new ApiResponse()
+                    .setStatus(200)
+                    .setHeader("Content-Type", Collections.singletonList(MediaType.APPLICATION_JSON))
+                    .setBody(cached);
+        }
+
+        long started;
+        synchronized (lock) {
+            started = generation;
+        }
+        ApiResponse response = transport.get(path, headers);
+        if (response.getStatus() == 200 && response.getBody() != null && isJson(response)) {
+            synchronized (lock) {
+                if (generation == started) {
+                    cache.put(orderId, response.getBody());
+                }
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public ApiResponse post(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        invalidate(path);
+        try {
+            return transport.post(path, data, headers);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public ApiResponse put(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        invalidate(path);
+        try {
+            return transport.put(path, data, headers);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public ApiResponse patch(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        invalidate(path);
+        try {
+            return transport.patch(path, data, headers);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    @Deprecated
+    public ApiResponse delete(final String path, final Map<String, String> headers) throws ApiException, IOException {
+        invalidate(path);
+        try {
+            return transport.delete(path, headers);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public ApiResponse delete(final String path, final byte[] data, final Map<String, String> headers)
+            throws ApiException, IOException {
+        invalidate(path);
+        try {
+            return transport.delete(path, data, headers);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    private void invalidate(final String path) {
+        Matcher matcher = ORDER.matcher(path);
+        if (!matcher.matches()) {
+            return;
+        }
+        synchronized (lock) {
+            generation++;
+            cache.invalidate(matcher.group(1));
+        }
+    }
+
+    private static boolean isJson(final ApiResponse response) {
+        List<String> contentType = response.getHeader("Content-Type");
+        return contentType != null && !contentType.isEmpty() && contentType.get(0).startsWith(MediaType.APPLICATION_JSON);
+    }
+}
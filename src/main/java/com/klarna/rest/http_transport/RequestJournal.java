@@ -0,0 +1,463 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.http_transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of mutating requests stored in memory-mapped, append-only segment files.
+ *
+ * A request is recorded by {@link #begin} before it is sent and marked by {@link #complete}
+ * once its outcome is known. Entries that were begun but never completed, e.g. because the
+ * JVM died while the request was in flight, are restored on open and returned by
+ * {@link #getIncomplete()}.
+ *
+ * <p>Only the begin records have to be durable before the request is sent. Concurrent
+ * callers share fsyncs: a thread waiting for the disk is covered by the fsync of the thread
+ * ahead of it whenever its record was appended before that fsync started. Segments are
+ * deleted oldest first, once all requests begun in a segment and in every older segment are
+ * completed, since a younger segment may hold the end records of older requests.</p>
+ */
+public class RequestJournal implements Closeable {
+    /**
+     * Logger instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(RequestJournal.class);
+
+    private static final int MAGIC = 0x4B434A31;
+    private static final int BEGIN = 1;
+    private static final int END = 2;
+    private static final int HEADER_SIZE = 20;
+    private static final int TRAILER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    /**
+     * Journaled request.
+     */
+    public static final class Entry {
+        private final long id;
+        private final long timestamp;
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final byte[] bodyHash;
+        private Segment segment;
+
+        Entry(final long id, final long timestamp, final String method, final String path,
+              final Map<String, String> headers, final byte[] body, final byte[] bodyHash) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+            this.bodyHash = bodyHash;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the time the request was begun.
+         *
+         * @return milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getIdempotencyKey() {
+            return headers.get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Gets the SHA-256 hash of the body.
+         *
+         * @return hash bytes
+         */
+        public byte[] getBodyHash() {
+            return bodyHash;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + method + " " + path;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Map<Long, Entry> incomplete = new LinkedHashMap<>();
+    private final Object syncLock = new Object();
+    private long nextSegmentId;
+    private long nextId = 1;
+    private long appended;
+    private volatile long durable;
+    private volatile int syncCount;
+
+    /**
+     * Opens or creates a journal.
+     *
+     * @param directory Directory holding the segment files
+     * @param segmentSize Size of a single segment file in bytes
+     * @throws IOException if the directory or the segments cannot be accessed
+     */
+    public RequestJournal(final File directory, final int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE + TRAILER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file);
+            segments.addLast(segment);
+            segment.scan();
+            nextSegmentId = id + 1;
+        }
+        releaseCompleted();
+    }
+
+    /**
+     * Records a request before it is sent and waits until the record is durable.
+     *
+     * @param method HTTP method
+     * @param path URL path
+     * @param headers Request headers, should contain the idempotency key
+     * @param body Payload or null
+     * @return entry id
+     * @throws IOException if the record cannot be written
+     */
+    public long begin(final String method, final String path, final Map<String, String> headers, final byte[] body)
+            throws IOException {
+        final Map<String, String> copy = headers == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        final long timestamp = System.currentTimeMillis();
+        final byte[] hash = hash(body);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(timestamp);
+        payload.writeUTF(method);
+        payload.writeUTF(path);
+        payload.writeShort(copy.size());
+        for (Map.Entry<String, String> header : copy.entrySet()) {
+            payload.writeUTF(header.getKey());
+            payload.writeUTF(header.getValue());
+        }
+        payload.write(hash);
+        payload.writeInt(body == null ? -1 : body.length);
+        if (body != null) {
+            payload.write(body);
+        }
+
+        final long id;
+        final long sequence;
+        synchronized (this) {
+            id = nextId++;
+            Entry entry = new Entry(id, timestamp, method, path, copy, body, hash);
+            entry.segment = append(BEGIN, id, bytes.toByteArray());
+            entry.segment.open++;
+            incomplete.put(id, entry);
+            sequence = appended;
+        }
+        sync(sequence);
+        return id;
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * The record becomes durable with the next fsync; if it is lost, the request is reported
+     * as incomplete on the next open.
+     *
+     * @param id Entry id
+     * @param status HTTP status of the response
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void complete(final long id, final int status) throws IOException {
+        Entry entry = incomplete.remove(id);
+        if (entry == null) {
+            return;
+        }
+        append(END, id, ByteBuffer.allocate(4).putInt(status).array());
+        entry.segment.open--;
+        releaseCompleted();
+    }
+
+    /**
+     * Gets the requests that were begun but not completed.
+     *
+     * @return entries ordered by id
+     */
+    public synchronized List<Entry> getIncomplete() {
+        return new ArrayList<>(incomplete.values());
+    }
+
+    /**
+     * Gets the amount of fsyncs made since the journal was opened.
+     *
+     * @return fsync count
+     */
+    public int getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * Flushes the mapped segments to disk.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    private void sync(final long sequence) {
+        synchronized (syncLock) {
+            if (durable >= sequence) {
+                return;
+            }
+
+            final long target;
+            final List<Segment> dirty = new ArrayList<>();
+            synchronized (this) {
+                target = appended;
+                for (Segment segment : segments) {
+                    if (segment.dirty) {
+                        segment.dirty = false;
+                        dirty.add(segment);
+                    }
+                }
+            }
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            syncCount++;
+            durable = target;
+        }
+    }
+
+    private Segment append(final int type, final long id, final byte[] payload) throws IOException {
+        int length = HEADER_SIZE + payload.length + TRAILER_SIZE;
+        if (length > segmentSize) {
+            throw new IOException("Journal record of " + length + " bytes exceeds the segment size");
+        }
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.position + length > segment.buffer.capacity()) {
+            long segmentId = nextSegmentId++;
+            segment = new Segment(segmentId,
+                    new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX)));
+            segments.addLast(segment);
+            releaseCompleted();
+        }
+
+        segment.append(type, id, payload);
+        appended++;
+        return segment;
+    }
+
+    private void releaseCompleted() {
+        while (segments.size() > 1 && segments.peekFirst().open == 0) {
+            Segment segment = segments.removeFirst();
+            if (!segment.file.delete()) {
+                log.warn("Cannot delete completed journal segment " + segment.file);
+            }
+        }
+    }
+
+    private static byte[] hash(final byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (body != null) {
+                digest.update(body);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long checksum(final ByteBuffer buffer, final int offset, final int length) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(length, 8192)];
+        ByteBuffer data = buffer.duplicate();
+        data.position(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            int size = Math.min(remaining, chunk.length);
+            data.get(chunk, 0, size);
+            crc.update(chunk, 0, size);
+            remaining -= size;
+        }
+        return crc.getValue();
+    }
+
+    private final class Segment {
+        private final long id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int position;
+        private int open;
+        private boolean dirty;
+
+        Segment(final long id, final File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                long size = Math.max(raf.length(), segmentSize);
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        void scan() throws IOException {
+            position = 0;
+            while (position + HEADER_SIZE + TRAILER_SIZE <= buffer.capacity()) {
+                if (buffer.getInt(position) != MAGIC) {
+                    break;
+                }
+                int type = buffer.getInt(position + 4);
+                long entryId = buffer.getLong(position + 8);
+                int payloadLength = buffer.getInt(position + 16);
+                if (payloadLength < 0 || (long) position + HEADER_SIZE + payloadLength + TRAILER_SIZE > buffer.capacity()) {
+                    break;
+                }
+                int length = HEADER_SIZE + payloadLength;
+                if (checksum(buffer, position, length) != buffer.getLong(position + length)) {
+                    log.warn("Corrupted journal record in " + file + " at " + position + ", ignoring the rest");
+                    break;
+                }
+
+                byte[] payload = new byte[payloadLength];
+                ByteBuffer data = buffer.duplicate();
+                data.position(position + HEADER_SIZE);
+                data.get(payload);
+                if (type == BEGIN) {
+                    Entry entry = read(entryId, payload);
+                    entry.segment = this;
+                    open++;
+                    incomplete.put(entryId, entry);
+                } else if (type == END) {
+                    Entry entry = incomplete.remove(entryId);
+                    if (entry != null) {
+                        entry.segment.open--;
+                    }
+                }
+                nextId = Math.max(nextId, entryId + 1);
+                position += length + TRAILER_SIZE;
+            }
+        }
+
+        void append(final int type, final long entryId, final byte[] payload) {
+            int offset = position;
+            ByteBuffer data = buffer.duplicate();
+            data.position(offset);
+            data.putInt(MAGIC).putInt(type).putLong(entryId).putInt(payload.length);
+            data.put(payload);
+            int length = HEADER_SIZE + payload.length;
+            data.putLong(checksum(buffer, offset, length));
+            position = offset + length + TRAILER_SIZE;
+            dirty = true;
+        }
+
+        private Entry read(final long entryId, final byte[] payload) throws IOException {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            long timestamp = input.readLong();
+            String method = input.readUTF();
+            String path = input.readUTF();
+            int count = input.readShort();
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                headers.put(input.readUTF(), input.readUTF());
+            }
+            byte[] hash = new byte[32];
+            input.readFully(hash);
+            int bodyLength = input.readInt();
+            byte[] body = null;
+            if (bodyLength >= 0) {
+                body = new byte[bodyLength];
+                input.readFully(body);
+            }
+            return new Entry(entryId, timestamp, method, path, Collections.unmodifiableMap(headers), body, hash);
+        }
+
+        @Override
+        public String toString() {
+            return "Segment " + id;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest;
+
+import com.klarna.rest.api.settlements.SettlementsPayoutsApi;
+import com.klarna.rest.api.settlements.model.SettlementsPayout;
+import com.klarna.rest.http_transport.CachingTransport;
+import com.klarna.rest.http_transport.DiskCache;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class CachingTransportTest extends TestCase {
+    private File directory;
+    private HttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("kco-cache").toFile();
+        transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenReturn(new ApiResponse()
+                .setStatus(200)
+                .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                .setBody("{\"payment_reference\": \"XISA93DJ\"}".getBytes()));
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testServesHitsFromDisk() throws IOException {
+        DiskCache cache = new DiskCache(directory, 4096, 1 << 20);
+        SettlementsPayoutsApi api = new Client(new CachingTransport(transport, cache, CachingTransport.SETTLEMENTS))
+                .newSettlementsPayoutsApi();
+
+        assertEquals("XISA93DJ", api.getPayout("XISA93DJ").getPaymentReference());
+        SettlementsPayout payout = api.getPayout("XISA93DJ");
+        assertEquals("XISA93DJ", payout.getPaymentReference());
+        verify(transport, times(1)).get("/settlements/v1/payouts/XISA93DJ", null);
+        cache.close();
+
+        DiskCache reopened = new DiskCache(directory, 4096, 1 << 20);
+        assertEquals(1, reopened.count());
+        DiskCache.Entry entry = reopened.get("/settlements/v1/payouts/XISA93DJ");
+        assertEquals(MediaType.APPLICATION_JSON, entry.getContentType());
+        assertEquals("{\"payment_reference\": \"XISA93DJ\"}", new String(entry.getBody()));
+    }
+
+    @Test
+    public void testPolicy() throws IOException {
+        assertTrue(CachingTransport.SETTLEMENTS.isCacheable("/settlements/v1/payouts/ref"));
+        assertTrue(CachingTransport.SETTLEMENTS.isCacheable("/settlements/v1/transactions?payment_reference=ref"));
+        assertTrue(CachingTransport.SETTLEMENTS.isCacheable(
+                "/settlements/v1/reports/payout-with-transactions?size=10&payment_reference=ref"));
+        assertFalse(CachingTransport.SETTLEMENTS.isCacheable("/settlements/v1/payouts/summary?start_date=x"));
+        assertFalse(CachingTransport.SETTLEMENTS.isCacheable("/settlements/v1/payouts?"));
+        assertFalse(CachingTransport.SETTLEMENTS.isCacheable("/settlements/v1/transactions?order_id=x"));
+
+        HttpTransport caching = new CachingTransport(transport, new DiskCache(directory, 4096, 1 << 20),
+                CachingTransport.SETTLEMENTS);
+        caching.get("/settlements/v1/payouts?", null);
+        caching.get("/settlements/v1/payouts?", null);
+        verify(transport, times(2)).get("/settlements/v1/payouts?", null);
+    }
+
+    @Test
+    public void testChecksumAndEviction() throws IOException {
+        DiskCache cache = new DiskCache(directory, 256, 511);
+        byte[] body = new byte[100];
+        assertTrue(cache.put("a", null, body));
+        assertTrue(cache.put("b", null, body));
+        assertFalse(cache.put("huge", null, new byte[300]));
+
+        // The third entry starts a second segment, which evicts the first one
+        assertTrue(cache.put("c", null, body));
+        assertTrue(cache.put("d", null, body));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(256, cache.size());
+        assertEquals(2, cache.count());
+        cache.close();
+
+        File[] segments = directory.listFiles();
+        Arrays.sort(segments);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+            // Flip a body byte of the second entry in the segment
+            raf.seek(125 + 20);
+            raf.write(42);
+        }
+        DiskCache reopened = new DiskCache(directory, 256, 511);
+        assertNull(reopened.get("d"));
+        assertNotNull(reopened.get("c"));
+    }
+}
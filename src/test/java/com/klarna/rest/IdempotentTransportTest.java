@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest;
+
+import com.klarna.rest.api.order_management.OrderManagementCapturesApi;
+import com.klarna.rest.api.order_management.model.OrderManagementCaptureObject;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.http_transport.IdempotencyLedger;
+import com.klarna.rest.http_transport.IdempotentTransport;
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class IdempotentTransportTest extends TestCase {
+    private File directory;
+    private HttpTransport transport;
+    private final AtomicInteger captures = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("kco-ledger").toFile();
+        transport = mock(HttpTransport.class);
+        when(transport.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        String path = (String) invocation.getArguments()[0];
+                        if (path.contains("/closed/")) {
+                            return new ApiResponse().setStatus(403).setBody("{\"error_code\": \"NOT_ALLOWED\"}".getBytes());
+                        }
+                        return new ApiResponse()
+                                .setStatus(201)
+                                .setHeader("Capture-Id", Arrays.asList("capture-" + captures.incrementAndGet()));
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSendsIdenticalRequestsWithoutKey() throws IOException {
+        IdempotencyLedger ledger = new IdempotencyLedger(10);
+        HttpTransport idempotent = new IdempotentTransport(transport, ledger);
+        OrderManagementCaptureObject capture = new OrderManagementCaptureObject().capturedAmount(100L);
+
+        OrderManagementCapturesApi api = new Client(idempotent).newOrderManagementCapturesApi("order-1");
+        assertEquals("capture-1", api.create(capture));
+        assertEquals("capture-2", api.create(capture));
+        assertEquals(0, ledger.size());
+
+        ArgumentCaptor<Map> headers = ArgumentCaptor.forClass(Map.class);
+        verify(transport, times(2)).post(eq("/ordermanagement/v1/orders/order-1/captures"),
+                any(byte[].class), headers.capture());
+        List<Map> sent = headers.getAllValues();
+        assertNotNull(sent.get(0).get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER));
+        assertFalse(sent.get(0).get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER)
+                .equals(sent.get(1).get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER)));
+    }
+
+    @Test
+    public void testKeepsCallerKey() throws IOException {
+        HttpTransport idempotent = new IdempotentTransport(transport, new IdempotencyLedger(10));
+        OrderManagementCaptureObject capture = new OrderManagementCaptureObject().capturedAmount(100L);
+
+        OrderManagementCapturesApi api = new Client(idempotent).newOrderManagementCapturesApi("order-1");
+        assertEquals("capture-1", api.create(capture, "first"));
+        assertEquals("capture-2", api.create(capture, "second"));
+        assertEquals("capture-1", api.create(capture, "first"));
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put(IdempotentTransport.IDEMPOTENCY_KEY_HEADER, "second");
+        verify(transport, times(1)).post(anyString(), any(byte[].class), eq(expected));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDerivesKeysWithinOperation() throws IOException {
+        IdempotencyLedger ledger = new IdempotencyLedger(10);
+        HttpTransport idempotent = new IdempotentTransport(transport, ledger);
+        OrderManagementCaptureObject capture = new OrderManagementCaptureObject().capturedAmount(100L);
+        OrderManagementCapturesApi api = new Client(idempotent).newOrderManagementCapturesApi("order-1");
+
+        try (IdempotentTransport.Operation operation = IdempotentTransport.operation("job-1")) {
+            assertEquals("capture-1", api.create(capture));
+        }
+        try (IdempotentTransport.Operation operation = IdempotentTransport.operation("job-1")) {
+            assertEquals("capture-1", api.create(capture));
+        }
+        try (IdempotentTransport.Operation operation = IdempotentTransport.operation("job-2")) {
+            assertEquals("capture-2", api.create(capture));
+        }
+        assertEquals("capture-3", api.create(capture));
+
+        ArgumentCaptor<Map> headers = ArgumentCaptor.forClass(Map.class);
+        verify(transport, times(3)).post(anyString(), any(byte[].class), headers.capture());
+        List<Map> sent = headers.getAllValues();
+        assertFalse(sent.get(0).get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER)
+                .equals(sent.get(1).get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER)));
+        assertEquals(2, ledger.size());
+    }
+
+    @Test
+    public void testRejectsKeyReusedForDifferentRequest() throws IOException {
+        HttpTransport idempotent = new IdempotentTransport(transport, new IdempotencyLedger(10));
+        OrderManagementCapturesApi api = new Client(idempotent).newOrderManagementCapturesApi("order-1");
+        assertEquals("capture-1", api.create(new OrderManagementCaptureObject().capturedAmount(100L), "key"));
+
+        try {
+            api.create(new OrderManagementCaptureObject().capturedAmount(200L), "key");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Idempotency key key was used for a different request", e.getMessage());
+        }
+        verify(transport, times(1)).post(anyString(), any(byte[].class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testDoesNotRecordFailures() throws IOException {
+        IdempotencyLedger ledger = new IdempotencyLedger(10);
+        OrderManagementCapturesApi api = new Client(new IdempotentTransport(transport, ledger))
+                .newOrderManagementCapturesApi("closed");
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                api.create(new OrderManagementCaptureObject());
+                fail("Expected ApiException");
+            } catch (ApiException e) {
+                assertEquals(403, e.getHttpStatus());
+            }
+        }
+        assertEquals(0, ledger.size());
+        verify(transport, times(2)).post(anyString(), any(byte[].class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testRestoresLedgerFromLog() throws IOException {
+        File log = new File(directory, "idempotency.log");
+        IdempotencyLedger ledger = new IdempotencyLedger(10, log);
+        OrderManagementCapturesApi api = new Client(new IdempotentTransport(transport, ledger))
+                .newOrderManagementCapturesApi("order-1");
+        assertEquals("capture-1", api.create(new OrderManagementCaptureObject().capturedAmount(100L), "first"));
+        assertEquals("capture-2", api.create(new OrderManagementCaptureObject().capturedAmount(200L), "second"));
+        ledger.close();
+
+        try (FileOutputStream os = new FileOutputStream(log, true)) {
+            os.write(new byte[]{0x4b, 0x49, 0x44, 0x33, 0x00});
+        }
+        long length = log.length();
+
+        IdempotencyLedger reopened = new IdempotencyLedger(10, log);
+        assertEquals(2, reopened.size());
+        assertEquals(length - 5, log.length());
+
+        api = new Client(new IdempotentTransport(transport, reopened)).newOrderManagementCapturesApi("order-1");
+        assertEquals("capture-2", api.create(new OrderManagementCaptureObject().capturedAmount(200L), "second"));
+        verify(transport, times(2)).post(anyString(), any(byte[].class), anyMapOf(String.class, String.class));
+        reopened.close();
+    }
+
+    @Test
+    public void testExpiresEntries() throws IOException, InterruptedException {
+        File log = new File(directory, "idempotency.log");
+        byte[] fingerprint = IdempotencyLedger.fingerprint("POST", "/path", null);
+        IdempotencyLedger ledger = new IdempotencyLedger(10, 50, log);
+        ledger.put("key", fingerprint, new ApiResponse().setStatus(204));
+        assertNotNull(ledger.get("key", fingerprint));
+        ledger.close();
+
+        Thread.sleep(100);
+        assertNull(ledger.get("key", fingerprint));
+        IdempotencyLedger reopened = new IdempotencyLedger(10, 50, log);
+        assertEquals(0, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactsLogAndEvicts() throws IOException {
+        File log = new File(directory, "idempotency.log");
+        byte[] fingerprint = IdempotencyLedger.fingerprint("POST", "/path", null);
+        IdempotencyLedger ledger = new IdempotencyLedger(2, log);
+        for (int i = 0; i < 7; i++) {
+            ledger.put("key-" + i, fingerprint, new ApiResponse().setStatus(204));
+        }
+        assertEquals(2, ledger.size());
+        assertNull(ledger.get("key-4", fingerprint));
+        assertNotNull(ledger.get("key-6", fingerprint));
+        ledger.close();
+
+        IdempotencyLedger reopened = new IdempotencyLedger(2, log);
+        assertEquals(2, reopened.size());
+        assertEquals(204, reopened.get("key-5", fingerprint).getStatus());
+        reopened.close();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest;
+
+import com.klarna.rest.api.order_management.OrderManagementCapturesApi;
+import com.klarna.rest.api.order_management.model.OrderManagementCaptureObject;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.http_transport.IdempotentTransport;
+import com.klarna.rest.http_transport.JournalingTransport;
+import com.klarna.rest.http_transport.RequestJournal;
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class JournalingTransportTest extends TestCase {
+    private File directory;
+    private HttpTransport transport;
+    private final AtomicBoolean down = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("kco-journal").toFile();
+        transport = mock(HttpTransport.class);
+        when(transport.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        if (down.get()) {
+                            throw new SocketTimeoutException("Read timed out");
+                        }
+                        if (((String) invocation.getArguments()[0]).contains("/closed/")) {
+                            throw new ApiException(403, "Capture not allowed");
+                        }
+                        return new ApiResponse().setStatus(201).setHeader("Capture-Id", Arrays.asList("capture-1"));
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testCompletedRequestsAreNotRecovered() throws IOException {
+        RequestJournal journal = new RequestJournal(directory, 4096);
+        OrderManagementCapturesApi api = new Client(new JournalingTransport(transport, journal))
+                .newOrderManagementCapturesApi("order-1");
+        assertEquals("capture-1", api.create(new OrderManagementCaptureObject().capturedAmount(100L)));
+        assertTrue(journal.getIncomplete().isEmpty());
+        journal.close();
+
+        assertTrue(new RequestJournal(directory, 4096).getIncomplete().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReplaysIncompleteRequestsAfterRestart() throws IOException {
+        RequestJournal journal = new RequestJournal(directory, 4096);
+        OrderManagementCapturesApi api = new Client(new JournalingTransport(transport, journal))
+                .newOrderManagementCapturesApi("order-1");
+        down.set(true);
+        try {
+            api.create(new OrderManagementCaptureObject().capturedAmount(100L), "capture-key");
+            fail("Expected IOException");
+        } catch (SocketTimeoutException e) {
+            assertEquals(1, journal.getIncomplete().size());
+        }
+        journal.close();
+        down.set(false);
+
+        RequestJournal reopened = new RequestJournal(directory, 4096);
+        List<RequestJournal.Entry> incomplete = reopened.getIncomplete();
+        assertEquals(1, incomplete.size());
+        RequestJournal.Entry entry = incomplete.get(0);
+        assertEquals("POST", entry.getMethod());
+        assertEquals("/ordermanagement/v1/orders/order-1/captures", entry.getPath());
+        assertEquals("capture-key", entry.getIdempotencyKey());
+        assertEquals("{\"captured_amount\":100}", new String(entry.getBody()));
+        assertEquals(32, entry.getBodyHash().length);
+
+        JournalingTransport recovering = new JournalingTransport(transport, reopened);
+        assertEquals(201, recovering.replay(entry).getStatus());
+        ArgumentCaptor<Map> headers = ArgumentCaptor.forClass(Map.class);
+        verify(transport, times(2)).post(eq(entry.getPath()), eq(entry.getBody()), headers.capture());
+        for (Map sent : headers.getAllValues()) {
+            assertEquals("capture-key", sent.get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER));
+        }
+        reopened.close();
+
+        assertTrue(new RequestJournal(directory, 4096).getIncomplete().isEmpty());
+    }
+
+    @Test
+    public void testKeepsEndRecordsOfOlderSegmentsAfterRestart() throws IOException {
+        RequestJournal journal = new RequestJournal(directory, 200);
+        long a = journal.begin("POST", "/a", null, null);
+        long b = journal.begin("POST", "/b", null, null);
+        journal.complete(journal.begin("POST", "/c", null, null), 201);
+        journal.complete(a, 201);
+        for (int i = 0; i < 5; i++) {
+            journal.complete(journal.begin("POST", "/c" + i, null, null), 201);
+        }
+        assertEquals(1, journal.getIncomplete().size());
+        assertEquals(b, journal.getIncomplete().get(0).getId());
+        journal.close();
+
+        RequestJournal reopened = new RequestJournal(directory, 200);
+        assertEquals(1, reopened.getIncomplete().size());
+        assertEquals(b, reopened.getIncomplete().get(0).getId());
+
+        reopened.complete(b, 201);
+        assertEquals(1, directory.listFiles().length);
+        reopened.close();
+        assertTrue(new RequestJournal(directory, 200).getIncomplete().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRandomKeysAndRejectedRequests() throws IOException {
+        RequestJournal journal = new RequestJournal(directory, 4096);
+        HttpTransport journaling = new JournalingTransport(transport, journal);
+        OrderManagementCapturesApi api = new Client(journaling).newOrderManagementCapturesApi("order-1");
+        OrderManagementCaptureObject capture = new OrderManagementCaptureObject().capturedAmount(100L);
+        api.create(capture);
+        api.create(capture);
+
+        ArgumentCaptor<Map> headers = ArgumentCaptor.forClass(Map.class);
+        verify(transport, times(2)).post(anyString(), any(byte[].class), headers.capture());
+        assertFalse(headers.getAllValues().get(0).get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER)
+                .equals(headers.getAllValues().get(1).get(IdempotentTransport.IDEMPOTENCY_KEY_HEADER)));
+
+        try {
+            new Client(journaling).newOrderManagementCapturesApi("closed").create(capture);
+            fail("Expected ApiException");
+        } catch (ApiException e) {
+            assertEquals(403, e.getHttpStatus());
+        }
+        assertTrue(journal.getIncomplete().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testSharesSyncsAndDropsCompletedSegments() throws Exception {
+        final RequestJournal journal = new RequestJournal(directory, 4096);
+        final HttpTransport journaling = new JournalingTransport(transport, journal);
+
+        List<Thread> threads = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            new Client(journaling).newOrderManagementCapturesApi("order-" + thread + "-" + i)
+                                    .create(new OrderManagementCaptureObject().capturedAmount(100L));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue(journal.getIncomplete().isEmpty());
+        assertTrue(journal.getSyncCount() <= 400);
+        assertEquals(1, directory.listFiles().length);
+        journal.close();
+    }
+}
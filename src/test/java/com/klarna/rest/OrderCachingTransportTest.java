@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest;
+
+import com.klarna.rest.api.order_management.OrderManagementCapturesApi;
+import com.klarna.rest.api.order_management.OrderManagementOrdersApi;
+import com.klarna.rest.api.order_management.model.OrderManagementCaptureObject;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.http_transport.OrderCache;
+import com.klarna.rest.http_transport.OrderCachingTransport;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class OrderCachingTransportTest extends TestCase {
+    private HttpTransport transport;
+    private final AtomicInteger captured = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<ApiResponse>() {
+            @Override
+            public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                String path = (String) invocation.getArguments()[0];
+                String orderId = path.substring(path.lastIndexOf('/') + 1);
+                return new ApiResponse()
+                        .setStatus(200)
+                        .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                        .setBody(("{\"order_id\": \"" + orderId + "\", \"captured_amount\": " + captured.get() + "}")
+                                .getBytes());
+            }
+        });
+        when(transport.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        captured.addAndGet(100);
+                        return new ApiResponse().setStatus(201).setHeader("Capture-Id", Arrays.asList("capture-1"));
+                    }
+                });
+    }
+
+    @Test
+    public void testInvalidatesOnCapture() throws IOException {
+        Client client = new Client(new OrderCachingTransport(transport, new OrderCache(10, 0)));
+        OrderManagementOrdersApi orders = client.newOrderManagementOrdersApi();
+
+        assertEquals(Long.valueOf(0), orders.fetch("order-1").getCapturedAmount());
+        assertEquals(Long.valueOf(0), orders.fetch("order-1").getCapturedAmount());
+        verify(transport, times(1)).get("/ordermanagement/v1/orders/order-1", null);
+
+        OrderManagementCapturesApi captures = client.newOrderManagementCapturesApi("order-1");
+        captures.create(new OrderManagementCaptureObject().capturedAmount(100L));
+
+        assertEquals(Long.valueOf(100), orders.fetch("order-1").getCapturedAmount());
+        assertEquals(Long.valueOf(100), orders.fetch("order-1").getCapturedAmount());
+        verify(transport, times(2)).get("/ordermanagement/v1/orders/order-1", null);
+    }
+
+    @Test
+    public void testDoesNotCacheSubResources() throws IOException {
+        Client client = new Client(new OrderCachingTransport(transport, new OrderCache(10, 0)));
+        OrderManagementCapturesApi captures = client.newOrderManagementCapturesApi("order-1");
+        captures.fetch("capture-1");
+        captures.fetch("capture-1");
+
+        verify(transport, times(2)).get("/ordermanagement/v1/orders/order-1/captures/capture-1", null);
+    }
+
+    @Test
+    public void testOffHeapTier() throws IOException {
+        OrderCache cache = new OrderCache(1, 4096);
+        OrderManagementOrdersApi orders = new Client(new OrderCachingTransport(transport, cache))
+                .newOrderManagementOrdersApi();
+
+        orders.fetch("order-1");
+        orders.fetch("order-2");
+        assertEquals(2, cache.size());
+        assertEquals("order-1", orders.fetch("order-1").getOrderId());
+        assertEquals("order-2", orders.fetch("order-2").getOrderId());
+
+        verify(transport, times(1)).get("/ordermanagement/v1/orders/order-1", null);
+        verify(transport, times(1)).get("/ordermanagement/v1/orders/order-2", null);
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testOffHeapRingOverwritesOldest() {
+        OrderCache cache = new OrderCache(1, 100);
+        for (int i = 0; i < 6; i++) {
+            cache.put("order-" + i, new byte[40]);
+        }
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("order-2"));
+        assertNotNull(cache.get("order-3"));
+        assertNotNull(cache.get("order-4"));
+        assertNotNull(cache.get("order-5"));
+
+        cache.invalidate("order-5");
+        assertNull(cache.get("order-5"));
+    }
+}
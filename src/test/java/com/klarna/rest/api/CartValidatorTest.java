@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.klarna.rest.api;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.checkout.model.CheckoutOrder;
+import com.klarna.rest.api.checkout.model.CheckoutOrderLine;
+import com.klarna.rest.api.order_management.model.OrderManagementOrderLine;
+import com.klarna.rest.api.order_management.model.OrderManagementUpdateAuthorization;
+import com.klarna.rest.api.payments.model.PaymentsOrderLine;
+import com.klarna.rest.api.payments.model.PaymentsSession;
+import org.junit.Test;
+
+public class CartValidatorTest extends TestCase {
+    private static CheckoutOrderLine checkoutLine() {
+        // 2 * 1000 - 200 = 1800, 25% VAT included: 1800 * 2500 / 12500 = 360
+        return new CheckoutOrderLine().quantity(2L).unitPrice(1000L).totalDiscountAmount(200L)
+                .totalAmount(1800L).taxRate(2500L).totalTaxAmount(360L);
+    }
+
+    @Test
+    public void testValidCheckoutOrder() {
+        CheckoutOrder order = new CheckoutOrder().orderAmount(3600L).orderTaxAmount(720L)
+                .addOrderLinesItem(checkoutLine())
+                .addOrderLinesItem(checkoutLine());
+
+        CartValidator.validate(order);
+    }
+
+    @Test
+    public void testInvalidLineTotal() {
+        CheckoutOrder order = new CheckoutOrder().orderAmount(3600L).orderTaxAmount(720L)
+                .addOrderLinesItem(checkoutLine())
+                .addOrderLinesItem(checkoutLine().totalDiscountAmount(0L));
+
+        try {
+            CartValidator.validate(order);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("order_lines[1]: total_amount 1800 does not equal "
+                    + "quantity * unit_price - total_discount_amount 2000", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTaxRounding() {
+        // 999 * 1900 / 11900 = 159.5
+        PaymentsSession session = new PaymentsSession().orderAmount(999L).orderTaxAmount(160L)
+                .addOrderLinesItem(new PaymentsOrderLine().quantity(1L).unitPrice(999L).totalAmount(999L)
+                        .taxRate(1900L).totalTaxAmount(160L));
+        CartValidator.validate(session);
+
+        session.getOrderLines().get(0).totalTaxAmount(162L);
+        session.orderTaxAmount(162L);
+        try {
+            CartValidator.validate(session);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("order_lines[0]: total_tax_amount 162"));
+        }
+    }
+
+    @Test
+    public void testOrderAmountSum() {
+        OrderManagementUpdateAuthorization update = new OrderManagementUpdateAuthorization().orderAmount(1000L)
+                .addOrderLinesItem(new OrderManagementOrderLine().quantity(1L).unitPrice(500L).totalAmount(500L))
+                .addOrderLinesItem(new OrderManagementOrderLine().quantity(1L).unitPrice(-100L).totalAmount(-100L));
+
+        try {
+            CartValidator.validate(update);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("order_amount 1000 does not equal the sum of total_amount 400", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api;
+
+import com.klarna.rest.Client;
+import com.klarna.rest.TestCase;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OrderStatusWatcherTest extends TestCase {
+    private final Map<String, String> statuses = new ConcurrentHashMap<>();
+    private final AtomicInteger polls = new AtomicInteger();
+
+    private final OrderStatusWatcher.StatusSource source = new OrderStatusWatcher.StatusSource() {
+        @Override
+        public String getStatus(String orderId) throws ApiException, IOException {
+            polls.incrementAndGet();
+            if (orderId.startsWith("missing")) {
+                throw new ApiException(404, "Not found");
+            }
+            return statuses.get(orderId);
+        }
+    };
+
+    @Test
+    public void testSchedule() {
+        OrderStatusWatcher.Schedule schedule = OrderStatusWatcher.Schedule.proportional(10, 100, 0.5);
+        assertEquals(10, schedule.getInterval(0));
+        assertEquals(50, schedule.getInterval(100));
+        assertEquals(100, schedule.getInterval(1000));
+    }
+
+    @Test
+    public void testReportsChanges() throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            statuses.put("order-" + i, "checkout_incomplete");
+        }
+
+        final CountDownLatch changes = new CountDownLatch(2);
+        final CountDownLatch errors = new CountDownLatch(1);
+        final Map<String, String> seen = new ConcurrentHashMap<>();
+        OrderStatusWatcher watcher = new OrderStatusWatcher(source,
+                OrderStatusWatcher.Schedule.proportional(5, 20, 1), null, 2, new OrderStatusWatcher.Listener() {
+            @Override
+            public boolean onChange(String orderId, String previous, String current) {
+                seen.put(orderId, previous + " -> " + current);
+                changes.countDown();
+                return !current.equals("checkout_complete");
+            }
+
+            @Override
+            public void onError(String orderId, Exception error) {
+                assertEquals("missing-1", orderId);
+                errors.countDown();
+            }
+        }, 1);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                watcher.watch("order-" + i, "checkout_incomplete");
+            }
+            watcher.watch("missing-1", null);
+            assertEquals(1001, watcher.size());
+
+            statuses.put("order-17", "checkout_complete");
+            statuses.put("order-500", "checkout_on_hold");
+
+            assertTrue(changes.await(5, TimeUnit.SECONDS));
+            assertTrue(errors.await(5, TimeUnit.SECONDS));
+            assertEquals("checkout_incomplete -> checkout_complete", seen.get("order-17"));
+            assertEquals("checkout_incomplete -> checkout_on_hold", seen.get("order-500"));
+            assertEquals(2, seen.size());
+
+            assertEquals(1000, watcher.size());
+            assertTrue(watcher.unwatch("order-500"));
+            assertFalse(watcher.unwatch("order-17"));
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testCapsPollRate() throws InterruptedException {
+        OrderStatusWatcher watcher = new OrderStatusWatcher(source,
+                OrderStatusWatcher.Schedule.proportional(1, 1, 0), new RateLimiter(100), 4,
+                new OrderStatusWatcher.Listener() {
+                    @Override
+                    public boolean onChange(String orderId, String previous, String current) {
+                        return true;
+                    }
+
+                    @Override
+                    public void onError(String orderId, Exception error) {
+                    }
+                }, 1);
+        try {
+            for (int i = 0; i < 500; i++) {
+                watcher.watch("order-" + i, null);
+            }
+            Thread.sleep(300);
+            assertTrue("Polled " + polls.get() + " times", polls.get() <= 40);
+            assertTrue(polls.get() > 0);
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testCheckoutSource() throws IOException {
+        HttpTransport transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<ApiResponse>() {
+            @Override
+            public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                return new ApiResponse()
+                        .setStatus(200)
+                        .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                        .setBody("{\"status\": \"checkout_complete\", \"html_snippet\": \"<div/>\"}".getBytes());
+            }
+        });
+
+        Client client = new Client(transport);
+        assertEquals("checkout_complete",
+                OrderStatusWatcher.checkout(client.newCheckoutOrdersApi()).getStatus("order-1"));
+        assertEquals("checkout_complete",
+                OrderStatusWatcher.orderManagement(client.newOrderManagementOrdersApi()).getStatus("order-1"));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.klarna.rest.api;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.checkout.model.CheckoutMerchantUrls;
+import com.klarna.rest.api.checkout.model.CheckoutOrder;
+import com.klarna.rest.api.checkout.model.CheckoutOrderLine;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class PayloadTemplateTest extends TestCase {
+    private final DefaultMapper mapper = new DefaultMapper();
+
+    @Test
+    public void testRender() throws IOException {
+        PayloadTemplate<CheckoutOrder> template = new PayloadTemplate<>(new CheckoutOrder()
+                .purchaseCountry("SE")
+                .locale("sv-SE")
+                .merchantUrls(new CheckoutMerchantUrls().terms("https://example.com/terms")));
+
+        CheckoutOrder order = new CheckoutOrder()
+                .purchaseCountry("US")
+                .orderAmount(1000L)
+                .addOrderLinesItem(new CheckoutOrderLine().name("Red T-Shirt").totalAmount(1000L));
+        byte[] body = template.render(order);
+
+        CheckoutOrder expected = new CheckoutOrder()
+                .purchaseCountry("SE")
+                .locale("sv-SE")
+                .merchantUrls(new CheckoutMerchantUrls().terms("https://example.com/terms"))
+                .orderAmount(1000L)
+                .addOrderLinesItem(new CheckoutOrderLine().name("Red T-Shirt").totalAmount(1000L));
+        assertEquals(mapper.readTree(mapper.writeValueAsBytes(expected)), mapper.readTree(body));
+        assertEquals("Template properties are not repeated",
+                1, new String(body).split("purchase_country").length - 1);
+    }
+
+    @Test
+    public void testEmptyParts() throws IOException {
+        PayloadTemplate<CheckoutOrder> template = new PayloadTemplate<>(new CheckoutOrder().locale("sv-SE"));
+        assertEquals("{\"locale\":\"sv-SE\",\"order_lines\":[],\"recurring\":false}",
+                new String(template.render(new CheckoutOrder())));
+
+        PayloadTemplate<CheckoutMerchantUrls> empty = new PayloadTemplate<>(new CheckoutMerchantUrls());
+        assertEquals("{\"terms\":\"https://example.com/terms\"}",
+                new String(empty.render(new CheckoutMerchantUrls().terms("https://example.com/terms"))));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.klarna.rest.api;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.payments.model.PaymentsOrderLine;
+import com.klarna.rest.api.payments.model.PaymentsSession;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RequiredFieldsValidatorTest extends TestCase {
+    private static PaymentsOrderLine line() {
+        return new PaymentsOrderLine().name("Red T-Shirt").quantity(1L).unitPrice(1000L).totalAmount(1000L);
+    }
+
+    private static PaymentsSession session() {
+        return new PaymentsSession().locale("sv-SE").purchaseCountry("SE").purchaseCurrency("SEK")
+                .orderAmount(1000L).orderTaxAmount(0L).addOrderLinesItem(line());
+    }
+
+    @Test
+    public void testCompleteModel() {
+        RequiredFieldsValidator.validate(session());
+        assertEquals(Collections.emptyList(), RequiredFieldsValidator.getMissingFields(session()));
+    }
+
+    @Test
+    public void testMissingFields() {
+        PaymentsSession session = session().locale(null)
+                .addOrderLinesItem(line())
+                .addOrderLinesItem(line().name(null).quantity(null));
+
+        assertEquals(Arrays.asList("locale", "order_lines[2].name", "order_lines[2].quantity"),
+                RequiredFieldsValidator.getMissingFields(session));
+
+        try {
+            RequiredFieldsValidator.validate(new PaymentsSession().locale("sv-SE"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Missing required fields: [order_amount, order_lines, order_tax_amount, "
+                    + "purchase_country, purchase_currency]", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.klarna.rest.api.checkout;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.LatencyHistogram;
+import com.klarna.rest.api.checkout.model.CheckoutOrder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class CallbacksTest extends TestCase {
+    private static final byte[] ORDER = "{\"order_id\": \"12345\", \"order_amount\": 1000}".getBytes();
+
+    private int status;
+    private Map<String, String> headers;
+    private String body;
+
+    private final CheckoutCallbacks.Sink sink = new CheckoutCallbacks.Sink() {
+        @Override
+        public void send(int status, Map<String, String> headers, byte[] body, int length) {
+            CallbacksTest.this.status = status;
+            CallbacksTest.this.headers = headers;
+            CallbacksTest.this.body = new String(body, 0, length);
+        }
+    };
+
+    @Test
+    public void testValidationDeny() throws IOException {
+        CheckoutCallbacks callbacks = new CheckoutCallbacks().register(CheckoutCallbacks.Type.VALIDATION,
+                new CheckoutCallbacks.Handler() {
+                    @Override
+                    public CheckoutCallbacks.Response handle(CheckoutOrder order, CheckoutCallbacks.Deadline deadline) {
+                        assertEquals("12345", order.getOrderId());
+                        assertFalse(deadline.isExpired());
+                        return CheckoutCallbacks.Response.deny("https://example.com/denied");
+                    }
+                }, 1000);
+
+        callbacks.handle(CheckoutCallbacks.Type.VALIDATION, new ByteArrayInputStream(ORDER), sink);
+
+        assertEquals(303, status);
+        assertEquals("https://example.com/denied", headers.get("Location"));
+        assertEquals("", body);
+        assertEquals(1, callbacks.getHistogram(CheckoutCallbacks.Type.VALIDATION).getCount());
+    }
+
+    @Test
+    public void testUpdateResponses() throws IOException {
+        CheckoutCallbacks callbacks = new CheckoutCallbacks(1).register(CheckoutCallbacks.Type.ADDRESS_UPDATE,
+                new CheckoutCallbacks.Handler() {
+                    @Override
+                    public CheckoutCallbacks.Response handle(CheckoutOrder order, CheckoutCallbacks.Deadline deadline) {
+                        if (order.getOrderAmount() > 500) {
+                            return CheckoutCallbacks.Response.update(order.orderAmount(500L));
+                        }
+                        return CheckoutCallbacks.Response.reject("address_error", "Cannot ship there");
+                    }
+                }, 1000);
+
+        callbacks.handle(CheckoutCallbacks.Type.ADDRESS_UPDATE, new ByteArrayInputStream(ORDER), sink);
+        assertEquals(200, status);
+        assertEquals("application/json", headers.get("Content-Type"));
+        assertTrue(body.contains("\"order_amount\":500"));
+
+        callbacks.handle(CheckoutCallbacks.Type.ADDRESS_UPDATE,
+                new ByteArrayInputStream("{\"order_amount\": 100}".getBytes()), sink);
+        assertEquals(400, status);
+        assertEquals("{\"error_type\":\"address_error\",\"error_text\":\"Cannot ship there\"}", body);
+    }
+
+    @Test
+    public void testFallbacks() throws IOException {
+        CheckoutCallbacks.Handler slow = new CheckoutCallbacks.Handler() {
+            @Override
+            public CheckoutCallbacks.Response handle(CheckoutOrder order, CheckoutCallbacks.Deadline deadline) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return CheckoutCallbacks.Response.deny("https://example.com/denied");
+            }
+        };
+        CheckoutCallbacks.Handler failing = new CheckoutCallbacks.Handler() {
+            @Override
+            public CheckoutCallbacks.Response handle(CheckoutOrder order, CheckoutCallbacks.Deadline deadline)
+                    throws IOException {
+                throw new IOException("Inventory unavailable");
+            }
+        };
+        CheckoutCallbacks callbacks = new CheckoutCallbacks()
+                .register(CheckoutCallbacks.Type.VALIDATION, slow, 50)
+                .register(CheckoutCallbacks.Type.SHIPPING_OPTION_UPDATE, failing, 1000);
+
+        long started = System.nanoTime();
+        callbacks.handle(CheckoutCallbacks.Type.VALIDATION, new ByteArrayInputStream(ORDER), sink);
+        assertTrue(System.nanoTime() - started < 2000000000L);
+        assertEquals(200, status);
+        assertEquals(1, callbacks.getTimeouts());
+
+        callbacks.handle(CheckoutCallbacks.Type.SHIPPING_OPTION_UPDATE, new ByteArrayInputStream(ORDER), sink);
+        assertEquals(200, status);
+        assertTrue(body.contains("\"order_id\":\"12345\""));
+        assertEquals(1, callbacks.getErrors());
+    }
+
+    @Test
+    public void testFailedValidationIsNotAccepted() throws IOException {
+        CheckoutCallbacks.Handler failing = new CheckoutCallbacks.Handler() {
+            @Override
+            public CheckoutCallbacks.Response handle(CheckoutOrder order, CheckoutCallbacks.Deadline deadline)
+                    throws IOException {
+                throw new IOException("Inventory unavailable");
+            }
+        };
+
+        CheckoutCallbacks callbacks = new CheckoutCallbacks().register(CheckoutCallbacks.Type.VALIDATION, failing, 1000);
+        callbacks.handle(CheckoutCallbacks.Type.VALIDATION, new ByteArrayInputStream(ORDER), sink);
+        assertEquals(500, status);
+        assertEquals(1, callbacks.getErrors());
+
+        callbacks.register(CheckoutCallbacks.Type.VALIDATION, failing, 1000,
+                CheckoutCallbacks.Response.deny("https://example.com/unavailable"));
+        callbacks.handle(CheckoutCallbacks.Type.VALIDATION, new ByteArrayInputStream(ORDER), sink);
+        assertEquals(303, status);
+        assertEquals("https://example.com/unavailable", headers.get("Location"));
+    }
+
+    @Test
+    public void testRejectsWhenAllThreadsAreBusy() throws IOException {
+        final CountDownLatch release = new CountDownLatch(1);
+        CheckoutCallbacks.Handler stuck = new CheckoutCallbacks.Handler() {
+            @Override
+            public CheckoutCallbacks.Response handle(CheckoutOrder order, CheckoutCallbacks.Deadline deadline) {
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                        // keeps the thread busy after the timeout
+                    }
+                }
+                return CheckoutCallbacks.Response.accept();
+            }
+        };
+        CheckoutCallbacks callbacks = new CheckoutCallbacks(1, 1).register(CheckoutCallbacks.Type.VALIDATION, stuck, 50,
+                CheckoutCallbacks.Response.deny("https://example.com/busy"));
+
+        try {
+            callbacks.handle(CheckoutCallbacks.Type.VALIDATION, new ByteArrayInputStream(ORDER), sink);
+            assertEquals(303, status);
+            assertEquals(1, callbacks.getTimeouts());
+
+            status = 0;
+            callbacks.handle(CheckoutCallbacks.Type.VALIDATION, new ByteArrayInputStream(ORDER), sink);
+            assertEquals(303, status);
+            assertEquals("https://example.com/busy", headers.get("Location"));
+            assertEquals(1, callbacks.getRejections());
+            assertEquals(1, callbacks.getTimeouts());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidMaxThreads() {
+        try {
+            new CheckoutCallbacks(1, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Max threads must be positive: 0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+        assertTrue("p50 " + p50, p50 >= 500000 && p50 < 500000 * 1.07);
+        assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 1000000);
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(99));
+    }
+}
@@ -17,6 +17,7 @@
 package com.klarna.rest.api.checkout;
 
 import com.klarna.rest.*;
+import com.klarna.rest.api.UpdateSnapshots;
 import com.klarna.rest.api.checkout.model.CheckoutAddress;
 import com.klarna.rest.api.checkout.model.CheckoutOptions;
 import com.klarna.rest.api.checkout.model.CheckoutOrder;
@@ -36,6 +37,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -80,6 +82,34 @@ public class OrdersApiTest extends TestCase {
         assertTrue(transport.requestPayout.toString().contains("\"recurring\":true"));
     }
 
+    @Test
+    public void testCreateOrderRaw() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(201);
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>(){{
+            put("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON));
+        }});
+
+        final String payload = "{\"order_amount\": 200, \"unknown_field\": true}";
+        when(transport.conn.getInputStream()).thenReturn(this.makeInputStream(payload));
+
+        Client client = new Client(transport);
+        CheckoutOrdersApi api = client.newCheckoutOrdersApi();
+        byte[] order = api.createRaw("{\"order_amount\":100,\"locale\":\"en-GB\"}".getBytes());
+
+        assertEquals(payload, new String(order));
+        verify(transport.conn, times(1)).setRequestMethod("POST");
+        assertEquals("/checkout/v3/orders", transport.requestPath);
+        assertEquals("{\"order_amount\":100,\"locale\":\"en-GB\"}", transport.requestPayout.toString());
+
+        when(transport.conn.getResponseCode()).thenReturn(403);
+        try {
+            api.createRaw("{}".getBytes());
+            fail("Expected ApiException");
+        } catch (ApiException e) {
+            assertEquals(403, e.getHttpStatus());
+        }
+    }
+
     @Test(expected = ApiException.class)
     public void testCreateOrderWrongResponseCode() throws IOException {
         when(transport.conn.getResponseCode()).thenReturn(403);
@@ -129,6 +159,62 @@ public class OrdersApiTest extends TestCase {
         assertEquals("/checkout/v3/orders/order-id-123", transport.requestPath);
     }
 
+    @Test
+    public void testFetchOrderIfChanged() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(200);
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>(){{
+            put("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON));
+        }});
+
+        final String incomplete = "{\"status\": \"checkout_incomplete\", \"html_snippet\": \"<div></div>\"}";
+        final String complete = "{\"status\": \"checkout_complete\", \"html_snippet\": \"<div></div>\"}";
+        when(transport.conn.getInputStream()).thenReturn(
+                this.makeInputStream(incomplete),
+                this.makeInputStream(incomplete),
+                this.makeInputStream(complete));
+
+        Client client = new Client(transport);
+        CheckoutOrdersApi api = client.newCheckoutOrdersApi();
+
+        CheckoutOrderSnapshot first = api.fetchIfChanged("order-id-123", null);
+        assertTrue(first.isChanged());
+        assertEquals("checkout_incomplete", first.getOrder().getStatus());
+
+        CheckoutOrderSnapshot second = api.fetchIfChanged("order-id-123", first);
+        assertFalse(second.isChanged());
+        assertSame(first.getOrder(), second.getOrder());
+
+        CheckoutOrderSnapshot third = api.fetchIfChanged("order-id-123", second);
+        assertTrue(third.isChanged());
+        assertEquals("checkout_complete", third.getOrder().getStatus());
+        assertFalse(third.getFingerprint() == first.getFingerprint());
+        assertEquals("/checkout/v3/orders/order-id-123", transport.requestPath);
+    }
+
+    @Test
+    public void testFetchHtmlSnippet() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(200);
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>(){{
+            put("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON));
+        }});
+
+        final String payload = "{\"order_id\": \"12345\", \"merchant_data\": {\"html_snippet\": \"nested\"}, "
+                + "\"order_lines\": [{\"name\": \"T-Shirt\"}], "
+                + "\"html_snippet\": \"<div id=\\\"klarna-checkout\\\">\\u00e5</div>\", \"status\": \"checkout_incomplete\"}";
+        when(transport.conn.getInputStream()).thenReturn(this.makeInputStream(payload));
+
+        Client client = new Client(transport);
+        CheckoutOrdersApi api = client.newCheckoutOrdersApi();
+        StringWriter writer = new StringWriter();
+
+        assertEquals(33, api.fetchHtmlSnippet("12345", writer));
+        assertEquals("<div id=\"klarna-checkout\">\u00e5</div>", writer.toString());
+        assertEquals("/checkout/v3/orders/12345", transport.requestPath);
+
+        when(transport.conn.getInputStream()).thenReturn(this.makeInputStream("{\"order_id\": \"12345\"}"));
+        assertEquals(-1, api.fetchHtmlSnippet("12345", new ByteArrayOutputStream()));
+    }
+
     @Test
     public void testFetchOrderByLocation() throws IOException {
         when(transport.conn.getResponseCode()).thenReturn(200);
@@ -188,6 +274,56 @@ public class OrdersApiTest extends TestCase {
         assertTrue(transport.requestPayout.toString().contains("\"recurring\":false"));
     }
 
+    @Test
+    public void testUpdateChanges() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(200);
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>(){{
+            put("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON));
+        }});
+
+        CheckoutOrder data = new CheckoutOrder()
+            .purchaseCountry("GB")
+            .purchaseCurrency("GBP")
+            .orderAmount(500L)
+            .locale("en-GB")
+            .merchantReference1("ref-1");
+        UpdateSnapshots snapshots = new UpdateSnapshots(10);
+        snapshots.remember("my-order-id", data);
+
+        Client client = new Client(transport);
+        CheckoutOrdersApi api = client.newCheckoutOrdersApi();
+        assertFalse(api.update("my-order-id", data, snapshots));
+        verify(transport.conn, never()).setRequestMethod("POST");
+
+        when(transport.conn.getInputStream()).thenReturn(this.makeInputStream("{\"order_amount\": 600}"));
+        assertTrue(api.update("my-order-id", data.orderAmount(600L), snapshots));
+        verify(transport.conn, times(1)).setRequestMethod("POST");
+        String partial = transport.requestPayout.toString();
+        assertTrue(partial.contains("\"order_amount\":600"));
+        assertTrue(partial.contains("\"purchase_country\":\"GB\""));
+        assertTrue(partial.contains("\"purchase_currency\":\"GBP\""));
+        assertTrue(partial.contains("\"locale\":\"en-GB\""));
+        assertFalse(partial.contains("merchant_reference1"));
+
+        transport.requestPayout = new ByteArrayOutputStream();
+        when(transport.conn.getResponseCode()).thenReturn(403);
+        try {
+            api.update("my-order-id", data.orderAmount(700L), snapshots);
+            fail("Expected ApiException");
+        } catch (ApiException e) {
+            assertEquals(403, e.getHttpStatus());
+        }
+        assertFalse(transport.requestPayout.toString().contains("merchant_reference1"));
+
+        transport.requestPayout = new ByteArrayOutputStream();
+        when(transport.conn.getResponseCode()).thenReturn(200);
+        when(transport.conn.getInputStream()).thenReturn(this.makeInputStream("{\"order_amount\": 700}"));
+        assertTrue(api.update("my-order-id", data, snapshots));
+        verify(transport.conn, times(3)).setRequestMethod("POST");
+        assertTrue(transport.requestPayout.toString().contains("\"order_amount\":700"));
+        assertTrue(transport.requestPayout.toString().contains("\"merchant_reference1\":\"ref-1\""));
+    }
+
     @Test
     public void testShippingBillingAddressses() throws IOException {
         CheckoutOrder data = new CheckoutOrder()
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.checkout;
+
+import com.klarna.rest.Client;
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.order_management.model.OrderManagementOrder;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class PushReceiverTest extends TestCase {
+    private HttpTransport transport;
+    private final Set<String> handled = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicInteger failures = new AtomicInteger(1);
+
+    private final CheckoutPushReceiver.Handler handler = new CheckoutPushReceiver.Handler() {
+        @Override
+        public void onOrder(OrderManagementOrder order) throws IOException {
+            handled.add(order.getOrderId());
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<ApiResponse>() {
+            @Override
+            public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                String path = (String) invocation.getArguments()[0];
+                String orderId = path.substring(path.lastIndexOf('/') + 1);
+                return new ApiResponse()
+                        .setStatus(200)
+                        .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                        .setBody(("{\"order_id\": \"" + orderId + "\", \"status\": \"AUTHORIZED\"}").getBytes());
+            }
+        });
+        when(transport.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        String path = (String) invocation.getArguments()[0];
+                        if (path.contains("/flaky/") && failures.getAndDecrement() > 0) {
+                            return new ApiResponse().setStatus(503);
+                        }
+                        return new ApiResponse().setStatus(204);
+                    }
+                });
+    }
+
+    @Test
+    public void testDeduplicatesPushes() throws Exception {
+        CheckoutPushReceiver receiver = new CheckoutPushReceiver(
+                new Client(transport).newOrderManagementOrdersApi(), handler, 4, 100, 20, 1000);
+        try {
+            for (int burst = 0; burst < 5; burst++) {
+                for (int i = 0; i < 50; i++) {
+                    receiver.receive("order-" + i);
+                }
+            }
+            assertTrue(receiver.getQueueDepth() + receiver.getInFlight() + receiver.getAcknowledged() <= 50);
+
+            awaitAcknowledged(receiver, 50);
+            assertEquals(50, handled.size());
+            assertEquals(250, receiver.getReceived());
+            assertEquals(200, receiver.getDuplicates());
+            assertEquals(0, receiver.getQueueDepth());
+
+            assertFalse(receiver.receive("order-7"));
+            Thread.sleep(50);
+            verify(transport, times(1)).get("/ordermanagement/v1/orders/order-7", null);
+            verify(transport, times(1)).post(eq("/ordermanagement/v1/orders/order-7/acknowledge"),
+                    any(byte[].class), anyMapOf(String.class, String.class));
+        } finally {
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testCoalescesBurstIntoOneBatch() throws Exception {
+        CheckoutPushReceiver receiver = new CheckoutPushReceiver(
+                new Client(transport).newOrderManagementOrdersApi(), handler, 4, 100, 500, 1000);
+        try {
+            for (int i = 0; i < 30; i++) {
+                receiver.receive("order-" + i);
+                Thread.sleep(2);
+            }
+            awaitAcknowledged(receiver, 30);
+            assertEquals(1, receiver.getBatches());
+        } finally {
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testRepeatedPushRetriesFailedOrder() throws Exception {
+        CheckoutPushReceiver receiver = new CheckoutPushReceiver(
+                new Client(transport).newOrderManagementOrdersApi(), handler, 2, 10, 1, 1000);
+        try {
+            assertTrue(receiver.receive("flaky"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (receiver.getFailed() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, receiver.getFailed());
+
+            assertTrue(receiver.receive("flaky"));
+            awaitAcknowledged(receiver, 1);
+        } finally {
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testEmbeddedServer() throws Exception {
+        CheckoutPushReceiver receiver = new CheckoutPushReceiver(
+                new Client(transport).newOrderManagementOrdersApi(), handler, 2);
+        try {
+            InetSocketAddress address = receiver.start(new InetSocketAddress("127.0.0.1", 0), "/push");
+            String base = "http://127.0.0.1:" + address.getPort() + "/push";
+
+            assertEquals(200, post(base + "?klarna_order_id=order-42"));
+            assertEquals(200, post(base + "?klarna_order_id=order-42"));
+            assertEquals(400, post(base));
+
+            awaitAcknowledged(receiver, 1);
+            assertEquals(1, receiver.getDuplicates());
+            assertTrue(handled.contains("order-42"));
+        } finally {
+            receiver.close();
+        }
+    }
+
+    private static int post(final String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.getOutputStream().close();
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+
+    private static void awaitAcknowledged(final CheckoutPushReceiver receiver, final long count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (receiver.getAcknowledged() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, receiver.getAcknowledged());
+    }
+}
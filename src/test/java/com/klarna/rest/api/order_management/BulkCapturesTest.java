@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.RetryPolicy;
+import com.klarna.rest.api.order_management.model.OrderManagementCaptureObject;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkCapturesTest extends TestCase {
+    private HttpTransport transport;
+    private final Map<String, List<String>> keys = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        String path = (String) invocation.getArguments()[0];
+                        @SuppressWarnings("unchecked")
+                        Map<String, String> headers = (Map<String, String>) invocation.getArguments()[2];
+                        String orderId = path.split("/")[4];
+
+                        List<String> seen = keys.get(orderId);
+                        if (seen == null) {
+                            seen = Collections.synchronizedList(new ArrayList<String>());
+                            keys.put(orderId, seen);
+                        }
+                        seen.add(headers.get("Klarna-Idempotency-Key"));
+
+                        int running = inFlight.incrementAndGet();
+                        while (true) {
+                            int max = maxInFlight.get();
+                            if (running <= max || maxInFlight.compareAndSet(max, running)) {
+                                break;
+                            }
+                        }
+                        try {
+                            Thread.sleep(5);
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+
+                        if (orderId.equals("timeout") && seen.size() == 1) {
+                            throw new SocketTimeoutException("Read timed out");
+                        }
+                        if (orderId.equals("unavailable")) {
+                            return new ApiResponse().setStatus(503);
+                        }
+                        if (orderId.equals("invalid")) {
+                            return new ApiResponse().setStatus(400).setBody(
+                                    "{\"error_code\": \"NOT_ALLOWED\", \"error_messages\": [\"Captured\"]}".getBytes());
+                        }
+                        return new ApiResponse()
+                                .setStatus(201)
+                                .setHeader("Location", Arrays.asList(path + "/capture-" + orderId));
+                    }
+                });
+    }
+
+    @Test
+    public void testCapturesAllItemsInParallel() throws IOException {
+        List<OrderManagementBulkCaptures.Item> items = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            items.add(new OrderManagementBulkCaptures.Item("order-" + i, new OrderManagementCaptureObject()));
+        }
+
+        final Map<String, String> captures = new ConcurrentHashMap<>();
+        OrderManagementBulkCaptures bulk = new OrderManagementBulkCaptures(transport, 4, RetryPolicy.NONE);
+        int successful = bulk.capture(items, new OrderManagementBulkCaptures.Listener() {
+            @Override
+            public void onResult(OrderManagementBulkCaptures.Result result) {
+                captures.put(result.getItem().getOrderId(), result.getCaptureId());
+            }
+        });
+
+        assertEquals(40, successful);
+        assertEquals(40, captures.size());
+        assertEquals("capture-order-7", captures.get("order-7"));
+        assertTrue(maxInFlight.get() <= 4);
+        assertTrue(maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void testRetriesWithTheSameIdempotencyKey() throws IOException {
+        List<OrderManagementBulkCaptures.Item> items = Arrays.asList(
+                new OrderManagementBulkCaptures.Item("timeout", new OrderManagementCaptureObject(), "key-1"),
+                new OrderManagementBulkCaptures.Item("unavailable", new OrderManagementCaptureObject()),
+                new OrderManagementBulkCaptures.Item("invalid", new OrderManagementCaptureObject()));
+
+        final Map<String, OrderManagementBulkCaptures.Result> results = new HashMap<>();
+        OrderManagementBulkCaptures bulk = new OrderManagementBulkCaptures(transport, 2, new RetryPolicy(3, 1, 2));
+        int successful = bulk.capture(items, new OrderManagementBulkCaptures.Listener() {
+            @Override
+            public synchronized void onResult(OrderManagementBulkCaptures.Result result) {
+                results.put(result.getItem().getOrderId(), result);
+            }
+        });
+
+        assertEquals(1, successful);
+
+        OrderManagementBulkCaptures.Result timeout = results.get("timeout");
+        assertTrue(timeout.isSuccessful());
+        assertEquals(2, timeout.getAttempts());
+        assertEquals(Arrays.asList("key-1", "key-1"), keys.get("timeout"));
+
+        OrderManagementBulkCaptures.Result unavailable = results.get("unavailable");
+        assertFalse(unavailable.isSuccessful());
+        assertEquals(3, unavailable.getAttempts());
+        assertEquals(503, ((ApiException) unavailable.getError()).getHttpStatus());
+        Set<String> distinct = new HashSet<>(keys.get("unavailable"));
+        assertEquals(1, distinct.size());
+
+        OrderManagementBulkCaptures.Result invalid = results.get("invalid");
+        assertEquals(1, invalid.getAttempts());
+        assertEquals("NOT_ALLOWED", ((ApiException) invalid.getError()).getErrorMessage().getErrorCode());
+        assertNull(invalid.getCaptureId());
+    }
+}
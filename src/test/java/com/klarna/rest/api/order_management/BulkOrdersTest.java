@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.RateLimiter;
+import com.klarna.rest.api.RetryPolicy;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkOrdersTest extends TestCase {
+    private HttpTransport transport;
+    private final Set<String> paths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final List<String> keys = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        String path = (String) invocation.getArguments()[0];
+                        @SuppressWarnings("unchecked")
+                        Map<String, String> headers = (Map<String, String>) invocation.getArguments()[2];
+                        keys.add(headers.get("Klarna-Idempotency-Key"));
+                        if (path.contains("/slow-") && paths.add(path)) {
+                            throw new SocketTimeoutException("Read timed out");
+                        }
+                        paths.add(path);
+                        if (path.contains("/closed-")) {
+                            return new ApiResponse().setStatus(403).setBody(
+                                    "{\"error_code\": \"NOT_ALLOWED\", \"error_messages\": [\"Order is closed\"]}".getBytes());
+                        }
+                        return new ApiResponse().setStatus(204);
+                    }
+                });
+    }
+
+    @Test
+    public void testCollectsFailuresWithoutStopping() throws IOException {
+        List<String> orderIds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            orderIds.add(i == 7 || i == 23 ? "closed-" + i : "order-" + i);
+        }
+
+        OrderManagementBulkOrders bulk = new OrderManagementBulkOrders(transport, 4, null, RetryPolicy.NONE);
+        OrderManagementBulkOrders.Result result = bulk.extendAuthorizationTime(orderIds);
+
+        assertEquals(50, result.getCount());
+        assertEquals(48, result.getSuccessCount());
+        assertTrue(result.isSuccessful(0));
+        assertFalse(result.isSuccessful(7));
+        assertTrue(result.isSuccessful(49));
+        assertEquals(2, result.getFailures().size());
+
+        OrderManagementBulkOrders.Failure failure = result.getFailures().get(0);
+        assertEquals(7, failure.getIndex());
+        assertEquals("closed-7", failure.getOrderId());
+        assertEquals(403, ((ApiException) failure.getError()).getHttpStatus());
+        assertEquals(23, result.getFailures().get(1).getIndex());
+
+        assertTrue(paths.contains("/ordermanagement/v1/orders/order-49/extend-authorization-time"));
+    }
+
+    @Test
+    public void testOperations() throws IOException {
+        OrderManagementBulkOrders bulk = new OrderManagementBulkOrders(transport, 2, null, RetryPolicy.NONE);
+        List<String> orderIds = Arrays.asList("order-1");
+
+        bulk.acknowledgeOrders(orderIds);
+        bulk.releaseRemainingAuthorization(orderIds);
+        bulk.cancelOrders(orderIds);
+
+        assertTrue(paths.contains("/ordermanagement/v1/orders/order-1/acknowledge"));
+        assertTrue(paths.contains("/ordermanagement/v1/orders/order-1/release-remaining-authorization"));
+        assertTrue(paths.contains("/ordermanagement/v1/orders/order-1/cancel"));
+    }
+
+    @Test
+    public void testRetriesWithSameKey() throws IOException {
+        OrderManagementBulkOrders bulk = new OrderManagementBulkOrders(
+                transport, 1, null, new RetryPolicy(2, 1, 1));
+        OrderManagementBulkOrders.Result result = bulk.cancelOrders(Arrays.asList("slow-1", "order-2"));
+
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(3, keys.size());
+        assertNotNull(keys.get(0));
+        assertEquals(keys.get(0), keys.get(1));
+        assertFalse(keys.get(1).equals(keys.get(2)));
+    }
+
+    @Test
+    public void testRateLimit() throws IOException {
+        List<String> orderIds = new ArrayList<>();
+        for (int i = 0; i < 21; i++) {
+            orderIds.add("order-" + i);
+        }
+
+        OrderManagementBulkOrders bulk = new OrderManagementBulkOrders(
+                transport, 8, new RateLimiter(100), RetryPolicy.NONE);
+        long started = System.nanoTime();
+        OrderManagementBulkOrders.Result result = bulk.acknowledgeOrders(orderIds);
+        long elapsed = (System.nanoTime() - started) / 1000000;
+
+        assertEquals(21, result.getSuccessCount());
+        assertTrue("Finished in " + elapsed + "ms", elapsed >= 190);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.RetryPolicy;
+import com.klarna.rest.api.order_management.model.OrderManagementRefundObject;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkRefundsTest extends TestCase {
+    private HttpTransport transport;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, List<Long>> sent = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger races = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        String orderId = ((String) invocation.getArguments()[0]).split("/")[4];
+                        OrderManagementRefundObject refund = mapper.readValue(
+                                (byte[]) invocation.getArguments()[1], OrderManagementRefundObject.class);
+
+                        if (running.get(orderId).incrementAndGet() > 1) {
+                            races.incrementAndGet();
+                        }
+                        int current = inFlight.incrementAndGet();
+                        synchronized (maxInFlight) {
+                            maxInFlight.set(Math.max(maxInFlight.get(), current));
+                        }
+                        try {
+                            Thread.sleep(2);
+                        } finally {
+                            inFlight.decrementAndGet();
+                            running.get(orderId).decrementAndGet();
+                        }
+
+                        sent.get(orderId).add(refund.getRefundedAmount());
+                        if (refund.getRefundedAmount() < 0) {
+                            return new ApiResponse().setStatus(400).setBody("{\"error_code\": \"REFUND_NOT_ALLOWED\"}".getBytes());
+                        }
+                        return new ApiResponse()
+                                .setStatus(201)
+                                .setHeader("Refund-Id", Arrays.asList(orderId + "-" + refund.getRefundedAmount()));
+                    }
+                });
+    }
+
+    @Test
+    public void testKeepsOrderWithinOrderAndRunsOrdersInParallel() throws IOException {
+        List<OrderManagementBulkRefunds.Item> items = new ArrayList<>();
+        for (long amount = 1; amount <= 10; amount++) {
+            for (int order = 0; order < 8; order++) {
+                String orderId = "order-" + order;
+                if (amount == 1) {
+                    sent.put(orderId, Collections.synchronizedList(new ArrayList<Long>()));
+                    running.put(orderId, new AtomicInteger());
+                }
+                long refundedAmount = order == 3 && amount == 5 ? -1 : amount;
+                items.add(new OrderManagementBulkRefunds.Item(orderId,
+                        new OrderManagementRefundObject().refundedAmount(refundedAmount)));
+            }
+        }
+
+        final List<String> refundIds = Collections.synchronizedList(new ArrayList<String>());
+        OrderManagementBulkRefunds bulk = new OrderManagementBulkRefunds(transport, 4, RetryPolicy.NONE);
+        OrderManagementBulkRefunds.Stats stats = bulk.refund(items, new OrderManagementBulkRefunds.Listener() {
+            @Override
+            public void onResult(OrderManagementBulkRefunds.Result result) {
+                if (result.isSuccessful()) {
+                    refundIds.add(result.getRefundId());
+                }
+            }
+        });
+
+        assertEquals(79, stats.getSucceeded());
+        assertEquals(1, stats.getFailed());
+        assertEquals(0, stats.getRetries());
+        assertEquals(79, refundIds.size());
+        assertTrue(refundIds.contains("order-6-10"));
+
+        assertEquals(0, races.get());
+        assertTrue(maxInFlight.get() > 1);
+        assertTrue(maxInFlight.get() <= 4);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), sent.get("order-0"));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, -1L, 6L, 7L, 8L, 9L, 10L), sent.get("order-3"));
+    }
+
+    @Test
+    public void testSlowOrderDoesNotBlockOtherLanes() throws IOException {
+        final String slow = "slow";
+        String fast = null;
+        for (int i = 0; fast == null; i++) {
+            if ((("fast-" + i).hashCode() & Integer.MAX_VALUE) % 2 != (slow.hashCode() & Integer.MAX_VALUE) % 2) {
+                fast = "fast-" + i;
+            }
+        }
+        final String fastId = fast;
+        final CountDownLatch fastDone = new CountDownLatch(5);
+
+        HttpTransport blocking = mock(HttpTransport.class);
+        when(blocking.post(anyString(), any(byte[].class), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<ApiResponse>() {
+                    @Override
+                    public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                        String orderId = ((String) invocation.getArguments()[0]).split("/")[4];
+                        if (orderId.equals(slow)) {
+                            fastDone.await(5, TimeUnit.SECONDS);
+                        }
+                        return new ApiResponse().setStatus(201).setHeader("Refund-Id", Arrays.asList(orderId));
+                    }
+                });
+
+        List<OrderManagementBulkRefunds.Item> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            items.add(new OrderManagementBulkRefunds.Item(slow, new OrderManagementRefundObject().refundedAmount(1L)));
+        }
+        for (int i = 0; i < 5; i++) {
+            items.add(new OrderManagementBulkRefunds.Item(fastId, new OrderManagementRefundObject().refundedAmount(1L)));
+        }
+
+        final List<Boolean> fastBeforeSlow = Collections.synchronizedList(new ArrayList<Boolean>());
+        OrderManagementBulkRefunds bulk = new OrderManagementBulkRefunds(blocking, 2, RetryPolicy.NONE);
+        OrderManagementBulkRefunds.Stats stats = bulk.refund(items, new OrderManagementBulkRefunds.Listener() {
+            @Override
+            public void onResult(OrderManagementBulkRefunds.Result result) {
+                if (result.getItem().getOrderId().equals(fastId)) {
+                    fastDone.countDown();
+                } else {
+                    fastBeforeSlow.add(fastDone.getCount() == 0);
+                }
+            }
+        });
+
+        assertEquals(15, stats.getSucceeded());
+        assertEquals(10, fastBeforeSlow.size());
+        assertFalse(fastBeforeSlow.contains(false));
+    }
+
+    @Test
+    public void testRejectsEmptyBacklog() {
+        try {
+            new OrderManagementBulkRefunds(transport, 2, 0, RetryPolicy.NONE);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Backlog must be positive: 0", e.getMessage());
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.klarna.rest.TestCase;
 import com.klarna.rest.api.order_management.model.OrderManagementCapture;
 import com.klarna.rest.api.order_management.model.OrderManagementCaptureObject;
 import com.klarna.rest.api.order_management.model.OrderManagementUpdateShippingInfo;
+import com.klarna.rest.model.ProtocolException;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -124,6 +125,26 @@ public class CapturesApiTest extends TestCase {
         assertEquals("https://example.com/new-location", transport.requestPath);
     }
 
+    @Test
+    public void testCreateIdFromResponseLocation() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(201);
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>(){{
+            put("Location", Arrays.asList("https://example.com/ordermanagement/v1/orders/my-order-id/captures/c-1"));
+        }});
+
+        Client client = new Client(transport);
+        OrderManagementCapturesApi api = client.newOrderManagementCapturesApi("my-order-id");
+        assertEquals("c-1", api.create(new OrderManagementCaptureObject().capturedAmount(100L)));
+
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>());
+        try {
+            api.create(new OrderManagementCaptureObject().capturedAmount(100L));
+            fail("Expected ProtocolException");
+        } catch (ProtocolException e) {
+            assertEquals(201, e.getHttpStatus());
+        }
+    }
+
     @Test
     public void testTriggerSendout() throws IOException {
         when(transport.conn.getResponseCode()).thenReturn(204);
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.order_management;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.order_management.model.OrderManagementOrder;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrdersFetcherTest extends TestCase {
+    public static class OrderStatus {
+        @JsonProperty("order_id")
+        public String orderId;
+
+        @JsonProperty("status")
+        public String status;
+    }
+
+    private HttpTransport transport;
+    private OrderManagementOrdersApi api;
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<ApiResponse>() {
+            @Override
+            public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                String orderId = ((String) invocation.getArguments()[0]).split("/")[4];
+                if (orderId.startsWith("missing")) {
+                    return new ApiResponse().setStatus(404).setBody(
+                            "{\"error_code\": \"NO_SUCH_ORDER\", \"error_messages\": [\"Not found\"]}".getBytes());
+                }
+                Thread.sleep(orderId.equals("order-0") ? 50 : 1);
+                return new ApiResponse()
+                        .setStatus(200)
+                        .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                        .setBody(("{\"order_id\": \"" + orderId + "\", \"status\": \"AUTHORIZED\","
+                                + " \"order_amount\": 1000, \"order_lines\": []}").getBytes());
+            }
+        });
+        api = new OrderManagementOrdersApi(transport);
+    }
+
+    @Test
+    public void testFetchAllDeduplicates() throws IOException {
+        List<String> orderIds = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            orderIds.add("order-" + (i % 10));
+        }
+
+        Map<String, OrderManagementOrder> orders = api.fetchAll(orderIds, 4);
+
+        assertEquals(10, orders.size());
+        assertEquals("order-0", orders.keySet().iterator().next());
+        assertEquals(Long.valueOf(1000), orders.get("order-9").getOrderAmount());
+        verify(transport, times(1)).get("/ordermanagement/v1/orders/order-3", null);
+    }
+
+    @Test
+    public void testStreamsProjectionsAndErrors() throws IOException {
+        final List<String> arrived = new ArrayList<>();
+        final Map<String, Exception> errors = new HashMap<>();
+
+        OrderManagementOrdersFetcher fetcher = new OrderManagementOrdersFetcher(3);
+        int requested = fetcher.fetchAll(api, Arrays.asList("order-0", "order-1", "missing-1", "order-2", "order-1"),
+                OrderStatus.class, new OrderManagementOrdersFetcher.Listener<OrderStatus>() {
+                    @Override
+                    public void onOrder(String orderId, OrderStatus order) {
+                        assertEquals(orderId, order.orderId);
+                        assertEquals("AUTHORIZED", order.status);
+                        arrived.add(orderId);
+                    }
+
+                    @Override
+                    public void onError(String orderId, Exception error) {
+                        errors.put(orderId, error);
+                    }
+                });
+
+        assertEquals(4, requested);
+        assertEquals(3, arrived.size());
+        assertEquals("order-0", arrived.get(2));
+        assertEquals(404, ((ApiException) errors.get("missing-1")).getHttpStatus());
+    }
+
+    @Test
+    public void testFetchAllThrowsOnFailure() throws IOException {
+        try {
+            api.fetchAll(Arrays.asList("order-1", "missing-2"), 2);
+            fail("Expected ApiException");
+        } catch (ApiException e) {
+            assertEquals("NO_SUCH_ORDER", e.getErrorMessage().getErrorCode());
+        }
+    }
+}
@@ -81,6 +81,22 @@ public class OrdersApiTest extends TestCase {
         assertTrue(requestPayout.contains("\"confirmation\":\"https://example.com/confirm\""));
     }
 
+    @Test
+    public void testCreateWithIdempotencyKey() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(200);
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>(){{
+            put("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON));
+        }});
+        when(transport.conn.getInputStream()).thenReturn(this.makeInputStream("{\"order_id\": \"0b1d9815\"}"));
+
+        Client client = new Client(transport);
+        PaymentsOrdersApi api = client.newPaymentsOrdersApi();
+        PaymentsOrder order = api.create("auth-token", new PaymentsCreateOrderRequest().orderAmount(100L), "order-key");
+
+        assertEquals("0b1d9815", order.getOrderId());
+        assertEquals("order-key", transport.requestHeaders.get("Klarna-Idempotency-Key"));
+    }
+
     @Test
     public void testCreateOrderRequestModel() throws IOException {
         ObjectMapper mapper = new DefaultMapper();
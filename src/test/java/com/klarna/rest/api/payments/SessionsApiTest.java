@@ -21,6 +21,7 @@ import com.klarna.rest.Client;
 import com.klarna.rest.FakeHttpUrlConnectionTransport;
 import com.klarna.rest.TestCase;
 import com.klarna.rest.api.DefaultMapper;
+import com.klarna.rest.api.UpdateSnapshots;
 import com.klarna.rest.api.payments.model.*;
 import org.junit.Before;
 import org.junit.Rule;
@@ -132,6 +133,31 @@ public class SessionsApiTest extends TestCase {
         assertTrue(requestPayout.contains("\"confirmation\":\"https://example.com/confirm\""));
     }
 
+    @Test
+    public void testUpdateChanges() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(204);
+
+        PaymentsSession data = new PaymentsSession()
+            .orderAmount(100L)
+            .merchantUrls(new PaymentsMerchantUrls()
+                .confirmation("https://example.com/confirm")
+            );
+        UpdateSnapshots snapshots = new UpdateSnapshots(10);
+        snapshots.remember("my-session-id", data);
+
+        Client client = new Client(transport);
+        PaymentsSessionsApi api = client.newPaymentsSessionsApi();
+        assertFalse(api.update("my-session-id", data, snapshots));
+        verify(transport.conn, never()).setRequestMethod("POST");
+
+        assertTrue(api.update("my-session-id", data.orderAmount(200L), snapshots));
+        verify(transport.conn, times(1)).setRequestMethod("POST");
+        assertEquals("{\"order_amount\":200}", transport.requestPayout.toString());
+
+        assertFalse(api.update("my-session-id", data, snapshots));
+        verify(transport.conn, times(1)).setRequestMethod("POST");
+    }
+
     @Test
     public void testShippingBillingAddressses() throws IOException {
         PaymentsSession data = new PaymentsSession()
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class CsvReaderTest extends TestCase {
+    private static List<SettlementsTransaction> readAll(String csv) throws IOException {
+        final List<SettlementsTransaction> result = new ArrayList<>();
+        SettlementsCsvReader reader = new SettlementsCsvReader(new StringReader(csv), ',');
+        reader.read(new SettlementsCsvReader.RowHandler() {
+            @Override
+            public void onRow(SettlementsCsvReader.Row row) {
+                result.add(row.toTransaction());
+            }
+        });
+        return result;
+    }
+
+    @Test
+    public void testTypedRows() throws IOException {
+        String csv = "\uFEFFtype,detailed_type,amount,currency_code,capture_id,sale_date,merchant_reference1\r\n"
+                + "SALE,PURCHASE,2000,EUR,33db6f16-9f43-43fa-a587-cc51411c98e4,2019-01-02T10:00:00Z,\"a, \"\"quoted\"\" ref\"\r\n"
+                + "\r\n"
+                + "FEE,PURCHASE_FEE_FIXED,-35,EUR,,2019-01-03,\"multi\nline\"\n"
+                + "UNKNOWN,,,,,,";
+
+        List<SettlementsTransaction> rows = readAll(csv);
+
+        assertEquals(3, rows.size());
+        SettlementsTransaction sale = rows.get(0);
+        assertEquals(SettlementsTransaction.TypeEnum.SALE, sale.getType());
+        assertEquals(SettlementsTransaction.DetailedTypeEnum.PURCHASE, sale.getDetailedType());
+        assertEquals(Long.valueOf(2000), sale.getAmount());
+        assertEquals("EUR", sale.getCurrencyCode());
+        assertEquals(UUID.fromString("33db6f16-9f43-43fa-a587-cc51411c98e4"), sale.getCaptureId());
+        assertEquals("2019-01-02T10:00Z", sale.getSaleDate().toString());
+        assertEquals("a, \"quoted\" ref", sale.getMerchantReference1());
+
+        SettlementsTransaction fee = rows.get(1);
+        assertEquals(Long.valueOf(-35), fee.getAmount());
+        assertEquals(SettlementsTransaction.DetailedTypeEnum.PURCHASE_FEE_FIXED, fee.getDetailedType());
+        assertNull(fee.getCaptureId());
+        assertEquals("2019-01-03T00:00Z", fee.getSaleDate().toString());
+        assertEquals("multi\nline", fee.getMerchantReference1());
+
+        assertNull(rows.get(2).getType());
+        assertNull(rows.get(2).getAmount());
+    }
+
+    @Test
+    public void testRowAccess() throws IOException {
+        String csv = "amount;payout\n12;P1\n-7;P2\n";
+        final long[] total = new long[1];
+        SettlementsCsvReader reader = new SettlementsCsvReader(new StringReader(csv), ';');
+        assertEquals(Integer.valueOf(1), reader.getColumns().get("payout"));
+
+        long rows = reader.read(new SettlementsCsvReader.RowHandler() {
+            @Override
+            public void onRow(SettlementsCsvReader.Row row) {
+                total[0] += row.getAmount();
+                assertEquals(-1, row.indexOf("missing"));
+                assertNull(row.getString("missing"));
+                assertEquals(row.getRecordNumber() == 2 ? "P1" : "P2", row.getString(1));
+            }
+        });
+
+        assertEquals(2, rows);
+        assertEquals(5, total[0]);
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        try {
+            readAll("amount\n\"12");
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertEquals("Unterminated quoted field in record 2", e.getMessage());
+        }
+
+        try {
+            readAll("amount\n1x");
+            fail("Expected exception");
+        } catch (NumberFormatException e) {
+            assertEquals("Not a number in record 2: 1x", e.getMessage());
+        }
+    }
+}
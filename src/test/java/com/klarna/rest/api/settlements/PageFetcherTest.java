@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.settlements.model.SettlementsPayout;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiException;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PageFetcherTest extends TestCase {
+    private static final Pattern OFFSET = Pattern.compile("offset=(\\d+)");
+
+    private HttpTransport transport;
+    private final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<ApiResponse>() {
+            @Override
+            public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                String path = (String) invocation.getArguments()[0];
+                paths.add(path);
+                Matcher m = OFFSET.matcher(path);
+                int offset = m.find() ? Integer.parseInt(m.group(1)) : 0;
+                if (offset == 2) {
+                    // Make the middle page the slowest one
+                    Thread.sleep(200);
+                }
+                return page(path.startsWith("/settlements/v1/payouts") ? "payouts" : "transactions", offset);
+            }
+        });
+    }
+
+    private static ApiResponse page(String field, int offset) {
+        StringBuilder items = new StringBuilder();
+        for (int i = offset; i < Math.min(offset + 2, 5); i++) {
+            if (items.length() > 0) {
+                items.append(",");
+            }
+            items.append(field.equals("payouts")
+                    ? "{\"payment_reference\": \"ref-" + i + "\"}"
+                    : "{\"amount\": " + i + "}");
+        }
+        String body = "{\"" + field + "\": [" + items + "], \"pagination\": {\"total\": 5, \"offset\": " + offset + "}}";
+        return new ApiResponse()
+                .setStatus(200)
+                .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                .setBody(body.getBytes());
+    }
+
+    @Test
+    public void testFetchTransactionsOrdered() throws IOException {
+        SettlementsTransactionsApi api = new SettlementsTransactionsApi(transport);
+        List<SettlementsTransaction> transactions = api.getAllTransactions(null, 4, true);
+
+        assertEquals(5, transactions.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Long.valueOf(i), transactions.get(i).getAmount());
+        }
+        assertEquals(3, paths.size());
+        assertTrue(paths.contains("/settlements/v1/transactions?"));
+        assertTrue(paths.contains("/settlements/v1/transactions?offset=2&size=2")
+                || paths.contains("/settlements/v1/transactions?size=2&offset=2"));
+    }
+
+    @Test
+    public void testFetchPayoutsUnordered() throws IOException {
+        final List<Long> offsets = new ArrayList<>();
+        SettlementsPageFetcher fetcher = new SettlementsPageFetcher(2, false);
+        fetcher.fetchPayouts(new SettlementsPayoutsApi(transport), null,
+                new SettlementsPageFetcher.PageListener<SettlementsPayout>() {
+                    @Override
+                    public void onPage(long offset, List<SettlementsPayout> items) {
+                        offsets.add(offset);
+                    }
+                });
+
+        assertEquals(Arrays.asList(0L, 4L, 2L), offsets);
+    }
+
+    @Test
+    public void testSinglePage() throws IOException {
+        Map<String, String> params = new HashMap<>();
+        params.put("size", "10");
+        List<SettlementsPayout> payouts = new SettlementsPayoutsApi(transport).getAllPayouts(params, 4, true);
+
+        assertEquals(2, payouts.size());
+        assertEquals(1, paths.size());
+    }
+
+    @Test
+    public void testPageFailure() throws IOException {
+        when(transport.get(contains("offset=2"), anyMapOf(String.class, String.class)))
+                .thenReturn(new ApiResponse().setStatus(503));
+
+        try {
+            new SettlementsTransactionsApi(transport).getAllTransactions(null, 2, true);
+            fail("Expected exception");
+        } catch (ApiException e) {
+            assertEquals(503, e.getHttpStatus());
+        }
+    }
+
+    @Test
+    public void testInvalidConcurrency() {
+        try {
+            new SettlementsPageFetcher(0, true);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Concurrency must be positive: 0", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.order_management.model.OrderManagementCapture;
+import com.klarna.rest.api.order_management.model.OrderManagementRefund;
+import com.klarna.rest.api.settlements.SettlementsReconciler.Kind;
+import com.klarna.rest.api.settlements.SettlementsReconciler.Result;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction.TypeEnum;
+import org.junit.Test;
+
+import java.util.*;
+
+public class ReconcilerTest extends TestCase {
+    private static final String ORDER_ID = "f3392f8b-6116-4073-ab96-e330819e2c07";
+
+    private final List<Result> results = new ArrayList<>();
+    private final SettlementsReconciler reconciler = new SettlementsReconciler(new SettlementsReconciler.Listener() {
+        @Override
+        public void onResult(Result result) {
+            results.add(result);
+        }
+    }, 1);
+
+    private static UUID id(int n) {
+        return new UUID(0, n);
+    }
+
+    private static SettlementsTransaction sale(int capture, long amount) {
+        return new SettlementsTransaction().type(TypeEnum.SALE).captureId(id(capture)).amount(amount)
+                .paymentReference("XISA93DJ");
+    }
+
+    @Test
+    public void testIncrementalMatching() {
+        reconciler.addCapture(ORDER_ID, new OrderManagementCapture().captureId(id(1).toString()).capturedAmount(100L));
+        assertTrue(results.isEmpty());
+        assertEquals(1, reconciler.getPendingCount());
+
+        assertTrue(reconciler.addTransaction(sale(1, 100)));
+        assertEquals(1, results.size());
+        Result matched = results.get(0);
+        assertEquals(Kind.MATCHED, matched.getKind());
+        assertEquals(SettlementsReconciler.Type.CAPTURE, matched.getType());
+        assertEquals(id(1), matched.getId());
+        assertEquals(UUID.fromString(ORDER_ID), matched.getOrderId());
+        assertEquals("XISA93DJ", matched.getPaymentReference());
+        assertEquals(0, reconciler.getPendingCount());
+
+        reconciler.onPage(0, Arrays.asList(
+                sale(2, 200),
+                new SettlementsTransaction().type(TypeEnum.RETURN).refundId(id(3)).amount(-50L),
+                new SettlementsTransaction().type(TypeEnum.FEE).amount(-5L)));
+        reconciler.addCapture(ORDER_ID, new OrderManagementCapture().captureId(id(2).toString()).capturedAmount(250L));
+        reconciler.addRefund(ORDER_ID, new OrderManagementRefund().refundId(id(3).toString()).refundedAmount(50L));
+
+        assertEquals(Kind.AMOUNT_MISMATCH, results.get(1).getKind());
+        assertEquals(Long.valueOf(250), results.get(1).getOrderManagementAmount());
+        assertEquals(Long.valueOf(200), results.get(1).getSettlementAmount());
+        assertEquals(Kind.MATCHED, results.get(2).getKind());
+        assertEquals(SettlementsReconciler.Type.REFUND, results.get(2).getType());
+        assertFalse(reconciler.addTransaction(new SettlementsTransaction().type(TypeEnum.FEE).amount(-5L)));
+    }
+
+    @Test
+    public void testFinishEmitsMissing() {
+        reconciler.addCapture(ORDER_ID, new OrderManagementCapture().captureId(id(1).toString()).capturedAmount(100L));
+        reconciler.addTransaction(sale(2, 300));
+
+        reconciler.finish();
+
+        assertEquals(2, results.size());
+        assertEquals(Kind.MISSING_SETTLEMENT, results.get(0).getKind());
+        assertEquals(id(1), results.get(0).getId());
+        assertNull(results.get(0).getSettlementAmount());
+        assertEquals(Kind.MISSING_ORDER_MANAGEMENT, results.get(1).getKind());
+        assertEquals(Long.valueOf(300), results.get(1).getSettlementAmount());
+        assertEquals(0, reconciler.getPendingCount());
+        assertEquals(1, reconciler.getCount(Kind.MISSING_SETTLEMENT));
+    }
+
+    @Test
+    public void testFallsBackToOrderId() {
+        UUID otherOrder = UUID.fromString("0b1d9815-165e-42e2-8867-35bc03789e00");
+        reconciler.addCapture(ORDER_ID, new OrderManagementCapture().captureId(id(1).toString()).capturedAmount(100L));
+        reconciler.addCapture(ORDER_ID, new OrderManagementCapture().captureId(id(2).toString()).capturedAmount(200L));
+        assertTrue(reconciler.addTransaction(new SettlementsTransaction().type(TypeEnum.SALE)
+                .orderId(UUID.fromString(ORDER_ID)).amount(200L).paymentReference("XISA93DJ")));
+        assertTrue(reconciler.addTransaction(new SettlementsTransaction().type(TypeEnum.RETURN)
+                .orderId(otherOrder).amount(-30L)));
+        assertFalse(reconciler.addTransaction(new SettlementsTransaction().type(TypeEnum.FEE)
+                .orderId(UUID.fromString(ORDER_ID)).amount(-5L)));
+        assertFalse(reconciler.addTransaction(new SettlementsTransaction().type(TypeEnum.SALE).amount(10L)));
+        assertTrue(results.isEmpty());
+        assertEquals(4, reconciler.getPendingCount());
+        assertEquals(2, reconciler.getSkippedCount());
+
+        reconciler.finish();
+
+        assertEquals(3, results.size());
+        for (Result result : results) {
+            if (id(2).equals(result.getId())) {
+                assertEquals(Kind.MATCHED, result.getKind());
+                assertEquals("XISA93DJ", result.getPaymentReference());
+            } else if (id(1).equals(result.getId())) {
+                assertEquals(Kind.MISSING_SETTLEMENT, result.getKind());
+            } else {
+                assertNull(result.getId());
+                assertEquals(Kind.MISSING_ORDER_MANAGEMENT, result.getKind());
+                assertEquals(SettlementsReconciler.Type.REFUND, result.getType());
+                assertEquals(otherOrder, result.getOrderId());
+                assertEquals(Long.valueOf(30), result.getSettlementAmount());
+            }
+        }
+        assertEquals(0, reconciler.getPendingCount());
+    }
+
+    @Test
+    public void testManyRecords() {
+        int n = 10000;
+        for (int i = 0; i < n; i++) {
+            reconciler.addTransaction(sale(i, i));
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            reconciler.addCapture(ORDER_ID, new OrderManagementCapture().captureId(id(i).toString())
+                    .capturedAmount(i % 100 == 0 ? i + 1L : i));
+        }
+        reconciler.finish();
+
+        assertEquals(n, results.size());
+        assertEquals(n / 100, reconciler.getCount(Kind.AMOUNT_MISMATCH));
+        assertEquals(n - n / 100, reconciler.getCount(Kind.MATCHED));
+    }
+
+    @Test
+    public void testUuidIndexRemoval() {
+        UuidIndex index = new UuidIndex(4);
+        for (int i = 0; i < 1000; i++) {
+            index.put(i % 7, i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(i, index.remove(i % 7, i));
+        }
+        assertEquals(500, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? UuidIndex.MISSING : i, index.get(i % 7, i));
+        }
+    }
+}
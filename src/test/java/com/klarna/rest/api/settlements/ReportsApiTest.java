@@ -64,6 +64,30 @@ public class ReportsApiTest extends TestCase {
         assertEquals(payload, new String(csv));
     }
 
+    @Test
+    public void testGetCSVPayoutReportRows() throws IOException {
+        when(transport.conn.getResponseCode()).thenReturn(200);
+        when(transport.conn.getHeaderFields()).thenReturn(new HashMap<String, List<String>>(){{
+            put("Content-Type", Arrays.asList("text/csv"));
+        }});
+        final String payload = "type,amount\nSALE,100\nRETURN,-40\n";
+        when(transport.conn.getInputStream()).thenReturn(this.makeInputStream(payload));
+
+        Client client = new Client(transport);
+        SettlementsReportsApi api = client.newSettlementsReportsApi();
+        final List<Long> amounts = new ArrayList<>();
+        long rows = api.getCSVPayoutReport(null, new SettlementsCsvReader.RowHandler() {
+            @Override
+            public void onRow(SettlementsCsvReader.Row row) {
+                amounts.add(row.getAmount());
+            }
+        });
+
+        assertEquals(2, rows);
+        assertEquals(Arrays.asList(100L, -40L), amounts);
+        assertEquals("/settlements/v1/reports/payout-with-transactions?", transport.requestPath);
+    }
+
     @Test
     public void testGetCSVSummary() throws IOException {
         when(transport.conn.getResponseCode()).thenReturn(200);
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.settlements.model.SettlementsPayoutSummary;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneOffset;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.*;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SummarySharderTest extends TestCase {
+    private HttpTransport transport;
+    private final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<ApiResponse>() {
+            @Override
+            public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                paths.add((String) invocation.getArguments()[0]);
+                String body = "[ { \"summary_settlement_currency\": \"EUR\", \"summary_total_sale_amount\": 100,"
+                        + " \"summary_payout_date_start\": \"2019-01-05T00:00:00Z\" },"
+                        + " { \"summary_settlement_currency\": \"SEK\", \"summary_total_fee_amount\": 7 } ]";
+                return new ApiResponse()
+                        .setStatus(200)
+                        .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                        .setBody(body.getBytes());
+            }
+        });
+    }
+
+    private static Map<String, String> range() {
+        Map<String, String> params = new HashMap<>();
+        params.put("start_date", "2019-01-01T00:00:00Z");
+        params.put("end_date", "2019-01-30T23:59:59Z");
+        return params;
+    }
+
+    @Test
+    public void testMergeWindows() throws IOException {
+        Clock clock = Clock.fixed(Instant.parse("2019-01-25T00:00:00Z"), ZoneOffset.UTC);
+        SettlementsSummarySharder sharder = new SettlementsSummarySharder(Duration.ofDays(10), 2, clock);
+
+        SettlementsPayoutSummary[] summary = sharder.getSummary(new SettlementsPayoutsApi(transport), range());
+
+        assertEquals(3, paths.size());
+        assertTrue(paths.contains(
+                "/settlements/v1/payouts/summary?end_date=2019-01-10T23%3A59%3A59Z&start_date=2019-01-01T00%3A00%3A00Z"));
+        assertTrue(paths.contains(
+                "/settlements/v1/payouts/summary?end_date=2019-01-30T23%3A59%3A59Z&start_date=2019-01-21T00%3A00%3A00Z"));
+
+        assertEquals(2, summary.length);
+        assertEquals("EUR", summary[0].getSummarySettlementCurrency());
+        assertEquals(Long.valueOf(300), summary[0].getSummaryTotalSaleAmount());
+        assertEquals("2019-01-05T00:00Z", summary[0].getSummaryPayoutDateStart().toString());
+        assertEquals("SEK", summary[1].getSummarySettlementCurrency());
+        assertEquals(Long.valueOf(21), summary[1].getSummaryTotalFeeAmount());
+        assertNull(summary[1].getSummaryTotalSaleAmount());
+    }
+
+    @Test
+    public void testClosedWindowsAreCached() throws IOException {
+        Clock clock = Clock.fixed(Instant.parse("2019-01-25T00:00:00Z"), ZoneOffset.UTC);
+        SettlementsSummarySharder sharder = new SettlementsSummarySharder(Duration.ofDays(10), 4, clock);
+        SettlementsPayoutsApi api = new SettlementsPayoutsApi(transport);
+
+        sharder.getSummary(api, range());
+        assertEquals(2, sharder.getCacheSize());
+
+        SettlementsPayoutSummary[] summary = sharder.getSummary(api, range());
+        assertEquals(4, paths.size());
+        assertEquals(Long.valueOf(300), summary[0].getSummaryTotalSaleAmount());
+
+        sharder.clearCache();
+        assertEquals(0, sharder.getCacheSize());
+    }
+
+    @Test
+    public void testMissingRange() throws IOException {
+        try {
+            new SettlementsSummarySharder(Duration.ofDays(1), 1).getSummary(new SettlementsPayoutsApi(transport), null);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Both start_date and end_date are required", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReversedRange() throws IOException {
+        Map<String, String> params = new HashMap<>();
+        params.put("start_date", "2020-02-01T00:00:00Z");
+        params.put("end_date", "2020-01-01T00:00:00Z");
+        try {
+            new SettlementsSummarySharder(Duration.ofDays(1), 4).getSummary(new SettlementsPayoutsApi(transport), params);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("start_date 2020-02-01T00:00:00Z is after end_date 2020-01-01T00:00:00Z", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.settlements.model.SettlementsPayout;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SyncTest extends TestCase {
+    private HttpTransport transport;
+    private File checkpointFile;
+    private final List<String> paths = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        checkpointFile = File.createTempFile("settlements", ".checkpoint");
+        checkpointFile.delete();
+
+        transport = mock(HttpTransport.class);
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<ApiResponse>() {
+            @Override
+            public ApiResponse answer(InvocationOnMock invocation) throws Throwable {
+                String path = (String) invocation.getArguments()[0];
+                paths.add(path);
+                String body;
+                if (path.startsWith("/settlements/v1/payouts")) {
+                    body = "{\"payouts\": ["
+                            + "{\"payment_reference\": \"B\", \"payout_date\": \"2019-01-02T00:00:00Z\"},"
+                            + "{\"payment_reference\": \"A\", \"payout_date\": \"2019-01-01T00:00:00Z\"},"
+                            + "{\"payment_reference\": \"C\", \"payout_date\": \"2019-01-02T00:00:00Z\"}"
+                            + "], \"pagination\": {\"total\": 3}}";
+                } else {
+                    String reference = path.substring(path.indexOf("payment_reference=") + 18);
+                    body = "{\"transactions\": [{\"payment_reference\": \"" + reference + "\", \"amount\": 1}],"
+                            + " \"pagination\": {\"total\": 1}}";
+                }
+                return new ApiResponse()
+                        .setStatus(200)
+                        .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                        .setBody(body.getBytes());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        checkpointFile.delete();
+    }
+
+    private SettlementsSync newSync() {
+        return new SettlementsSync(
+                new SettlementsPayoutsApi(transport),
+                new SettlementsTransactionsApi(transport),
+                new SettlementsPageFetcher(2, true),
+                checkpointFile);
+    }
+
+    @Test
+    public void testSyncAndResume() throws IOException {
+        final List<String> handled = new ArrayList<>();
+        SettlementsSync.Handler handler = new SettlementsSync.Handler() {
+            @Override
+            public void onPayout(SettlementsPayout payout, List<SettlementsTransaction> transactions)
+                    throws IOException {
+                if (payout.getPaymentReference().equals("C") && !handled.contains("crash")) {
+                    handled.add("crash");
+                    throw new IOException("Crash");
+                }
+                assertEquals(payout.getPaymentReference(), transactions.get(0).getPaymentReference());
+                handled.add(payout.getPaymentReference());
+            }
+        };
+
+        try {
+            newSync().sync(handler);
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertEquals("Crash", e.getMessage());
+        }
+        assertEquals(Arrays.asList("A", "B", "crash"), handled);
+
+        SettlementsSync.Checkpoint checkpoint = newSync().getCheckpoint();
+        assertEquals("B", checkpoint.getPaymentReference());
+        assertEquals("2019-01-02T00:00Z", checkpoint.getPayoutDate().toString());
+
+        paths.clear();
+        assertEquals(1, newSync().sync(handler));
+        assertEquals(Arrays.asList("A", "B", "crash", "C"), handled);
+        assertEquals("/settlements/v1/payouts?start_date=2019-01-02T00%3A00%3A00Z", paths.get(0));
+
+        assertEquals(0, newSync().sync(handler));
+        assertEquals("C", newSync().getCheckpoint().getPaymentReference());
+    }
+
+    @Test
+    public void testCorruptedCheckpoint() throws IOException {
+        assertTrue(checkpointFile.createNewFile());
+        try {
+            newSync().getCheckpoint();
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupted checkpoint file"));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.http_transport.HttpTransport;
+import com.klarna.rest.model.ApiResponse;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.*;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TransactionIndexTest extends TestCase {
+    private static final UUID ORDER_1 = UUID.fromString("f3392f8b-6116-4073-ab96-e330819e2c07");
+    private static final UUID ORDER_2 = UUID.fromString("0b1d9815-165e-42e2-8867-35bc03789e00");
+
+    @Test
+    public void testLookups() {
+        SettlementsTransactionIndex index = new SettlementsTransactionIndex();
+        index.onPage(0, Arrays.asList(
+                new SettlementsTransaction().orderId(ORDER_1).amount(1L).paymentReference("P1")
+                        .merchantReference1("ref-1").shortOrderId("abc"),
+                new SettlementsTransaction().orderId(ORDER_2).amount(2L).paymentReference("P1"),
+                new SettlementsTransaction().orderId(ORDER_1).amount(3L).paymentReference("P2")
+                        .merchantReference1("ref-1").captureId(ORDER_2)));
+
+        assertEquals(3, index.size());
+        List<SettlementsTransaction> order = index.findByOrderId(ORDER_1);
+        assertEquals(2, order.size());
+        assertEquals(Long.valueOf(1), order.get(0).getAmount());
+        assertEquals(Long.valueOf(3), order.get(1).getAmount());
+        assertEquals(Arrays.asList("P1", "P2"), index.findPaymentReferencesByOrderId(ORDER_1));
+
+        assertEquals(2, index.findByPaymentReference("P1").size());
+        assertEquals(2, index.findByMerchantReference1("ref-1").size());
+        assertEquals(1, index.findByShortOrderId("abc").size());
+        assertEquals(Long.valueOf(3), index.findByCaptureId(ORDER_2).get(0).getAmount());
+        assertTrue(index.findByMerchantReference2("none").isEmpty());
+        assertTrue(index.findByOrderId(null).isEmpty());
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        HttpTransport transport = mock(HttpTransport.class);
+        String body = "{\"transactions\": [{\"order_id\": \"" + ORDER_1 + "\", \"payment_reference\": \"P9\"}],"
+                + " \"pagination\": {\"total\": 1}}";
+        when(transport.get(anyString(), anyMapOf(String.class, String.class))).thenReturn(new ApiResponse()
+                .setStatus(200)
+                .setHeader("Content-Type", Arrays.asList(MediaType.APPLICATION_JSON))
+                .setBody(body.getBytes()));
+
+        SettlementsTransactionIndex index = new SettlementsTransactionIndex();
+        Map<String, String> params = new HashMap<>();
+        params.put("payment_reference", "P9");
+        index.load(new SettlementsTransactionsApi(transport), params, new SettlementsPageFetcher(2, false));
+
+        assertEquals(Arrays.asList("P9"), index.findPaymentReferencesByOrderId(ORDER_1));
+        verify(transport).get("/settlements/v1/transactions?payment_reference=P9", null);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Klarna AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.klarna.rest.api.settlements;
+
+import com.klarna.rest.TestCase;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction;
+import com.klarna.rest.api.settlements.model.SettlementsTransaction.TypeEnum;
+import org.junit.Test;
+import org.threeten.bp.OffsetDateTime;
+
+import java.util.*;
+
+public class TransactionStoreTest extends TestCase {
+    private static SettlementsTransaction transaction(long amount, TypeEnum type, String currency, String country,
+                                                      String payout) {
+        return new SettlementsTransaction()
+                .amount(amount)
+                .type(type)
+                .currencyCode(currency)
+                .purchaseCountry(country)
+                .payout(payout);
+    }
+
+    @Test
+    public void testColumns() {
+        UUID orderId = UUID.fromString("f3392f8b-6116-4073-ab96-e330819e2c07");
+        SettlementsTransactionStore store = new SettlementsTransactionStore();
+        int row = store.add(new SettlementsTransaction()
+                .amount(2000L)
+                .type(TypeEnum.SALE)
+                .detailedType(SettlementsTransaction.DetailedTypeEnum.PURCHASE)
+                .currencyCode("EUR")
+                .orderId(orderId)
+                .paymentReference("XISA93DJ")
+                .saleDate(OffsetDateTime.parse("2019-01-01T00:00:01Z")));
+
+        assertEquals(1, store.size());
+        assertEquals(2000L, store.getAmount(row));
+        assertEquals(TypeEnum.SALE, store.getType(row));
+        assertEquals(SettlementsTransaction.DetailedTypeEnum.PURCHASE, store.getDetailedType(row));
+        assertEquals("EUR", store.getCurrencyCode(row));
+        assertNull(store.getPurchaseCountry(row));
+        assertEquals(orderId, store.getOrderId(row));
+        assertNull(store.getCaptureId(row));
+        assertEquals("XISA93DJ", store.getPaymentReference(row));
+        assertEquals(1546300801000L, store.getSaleDateMillis(row));
+        assertEquals(SettlementsTransactionStore.NO_DATE, store.getCaptureDateMillis(row));
+
+        try {
+            store.getAmount(1);
+            fail("Expected exception");
+        } catch (IndexOutOfBoundsException e) {
+            assertEquals("Row 1 of 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testGroupBy() {
+        SettlementsTransactionStore store = new SettlementsTransactionStore(1);
+        store.onPage(0, Arrays.asList(
+                transaction(100, TypeEnum.SALE, "EUR", "DE", "P1"),
+                transaction(-10, TypeEnum.FEE, "EUR", "DE", "P1"),
+                transaction(200, TypeEnum.SALE, "SEK", "SE", "P2")));
+        store.onPage(3, Arrays.asList(
+                transaction(-50, TypeEnum.RETURN, "EUR", "AT", "P2"),
+                transaction(0, TypeEnum.COMMISSION, null, null, null)));
+
+        assertEquals(5, store.size());
+        assertEquals(240L, store.sum());
+
+        Map<TypeEnum, Long> byType = store.sumByType();
+        assertEquals(Long.valueOf(300), byType.get(TypeEnum.SALE));
+        assertEquals(Long.valueOf(-10), byType.get(TypeEnum.FEE));
+        assertEquals(Long.valueOf(0), byType.get(TypeEnum.COMMISSION));
+        assertFalse(byType.containsKey(TypeEnum.REVERSAL));
+
+        assertEquals(Arrays.asList("EUR", "SEK"), new ArrayList<>(store.sumByCurrency().keySet()));
+        assertEquals(Long.valueOf(40), store.sumByCurrency().get("EUR"));
+        assertEquals(Long.valueOf(-50), store.sumByPurchaseCountry().get("AT"));
+        assertEquals(Long.valueOf(90), store.sumByPayout().get("P1"));
+        assertEquals(Long.valueOf(150), store.sumByPayout().get("P2"));
+    }
+}